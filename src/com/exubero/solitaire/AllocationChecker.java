@@ -0,0 +1,85 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import android.os.Debug;
+
+
+// Watches a piece of per-frame code, such as onDraw or the touch handling,
+// for allocations, and keeps the average a frame since it was turned on.
+// Counting slows the VM down, so only AllocationScript turns it on, and
+// turns it off again when it is done. Debug's counts are deprecated, but
+// nothing else counts the objects one thread allocates; the heap size only
+// moves in chunks the size of a thread's allocation buffer.
+@SuppressWarnings("deprecation")
+class AllocationChecker {
+
+    // Checkers turned on; counting runs while there are any.
+    private static int counting = 0;
+
+    private String name;
+    private boolean isEnabled;
+    private int start;
+    private long allocationCount;
+    private int frameCount;
+
+    public AllocationChecker(String name) {
+        this.name = name;
+        isEnabled = false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setEnabled(boolean enabled) {
+        if (enabled == isEnabled) {
+            return;
+        }
+        synchronized (AllocationChecker.class) {
+            if (enabled && counting++ == 0) {
+                Debug.startAllocCounting();
+            } else if (!enabled && --counting == 0) {
+                Debug.stopAllocCounting();
+            }
+        }
+        isEnabled = enabled;
+        allocationCount = 0;
+        frameCount = 0;
+    }
+
+    public void begin() {
+        if (isEnabled) {
+            start = Debug.getThreadAllocCount();
+        }
+    }
+
+    public void end() {
+        if (isEnabled) {
+            allocationCount += Debug.getThreadAllocCount() - start;
+            frameCount++;
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    // Objects allocated a frame on average since it was turned on.
+    public double getAllocationsPerFrame() {
+        return frameCount == 0 ? 0 : (double) allocationCount / frameCount;
+    }
+}
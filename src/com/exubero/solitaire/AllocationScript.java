@@ -0,0 +1,178 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.widget.TextView;
+
+
+// Plays a scripted session of every game through the view, with no one at
+// the screen: deals, drags, flings, undoes and a replay, every frame drawn
+// into an offscreen bitmap. Each game is played once to warm up, so caches
+// and first time allocations are out of the way, then again with the view's
+// AllocationCheckers on. A move or a replay allocates a little, but a game
+// fails if drawing or touch handling averages more than
+// MAX_ALLOCATIONS_PER_FRAME, which means something allocates every frame.
+//
+// It plays on a view of its own that is never shown, with preferences of its
+// own, so the game in progress, the settings and the stats are left alone.
+// Debug builds only: start it with
+//   adb shell am start -n com.exubero.solitaire/.Solitaire --ez AllocationScript true
+// and the result is logged by Solitaire.
+class AllocationScript {
+
+    private static final int[] GAME_TYPES = {
+        Rules.SOLITAIRE, Rules.SPIDER, Rules.FREECELL, Rules.FORTYTHIEVES,
+        Rules.BAKERSDOZEN, Rules.GOLF
+    };
+
+    private static final double MAX_ALLOCATIONS_PER_FRAME = 0.75;
+
+    private static final int DEFAULT_WIDTH = 480;
+    private static final int DEFAULT_HEIGHT = 320;
+    private static final int DEAL_COUNT = 3;
+    private static final int DRAG_STEPS = 10;
+    private static final int FLING_STEPS = 4;
+    private static final int UNDO_COUNT = 5;
+    // An animation that takes longer than this has stuck.
+    private static final int MAX_SETTLE_FRAMES = 5000;
+
+    private SolitaireView view;
+    private CardLayout layout;
+    private int shownType;
+    private int width;
+    private int height;
+    private Canvas canvas;
+
+    // shown is the view the player sees. Only its size and game type are read.
+    public AllocationScript(Solitaire solitaire, SolitaireView shown) {
+        view = new SolitaireView(solitaire, null);
+        view.setSettings(solitaire.getSharedPreferences("AllocationScript", 0));
+        view.setTextView(new TextView(solitaire));
+        layout = view.getCardLayout();
+        shownType = shown.getRules().getType();
+        width = shown.getWidth() > 0 ? shown.getWidth() : DEFAULT_WIDTH;
+        height = shown.getHeight() > 0 ? shown.getHeight() : DEFAULT_HEIGHT;
+        canvas = new Canvas(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+    }
+
+    // Runs the session for every game and returns what failed, or null if
+    // nothing did.
+    public String run() {
+        StringBuilder failures = new StringBuilder();
+        try {
+            for (int i = 0; i < GAME_TYPES.length; i++) {
+                play(GAME_TYPES[i]);
+                setChecking(true);
+                play(GAME_TYPES[i]);
+                check(view.getDrawAllocations(), GAME_TYPES[i], failures);
+                check(view.getTouchAllocations(), GAME_TYPES[i], failures);
+                setChecking(false);
+            }
+        } finally {
+            setChecking(false);
+            view.release();
+            // The card size is shared, so put back the one the player's game uses.
+            Card.setSize(shownType);
+        }
+        return failures.length() == 0 ? null : failures.toString();
+    }
+
+    private void setChecking(boolean checking) {
+        view.getDrawAllocations().setEnabled(checking);
+        view.getTouchAllocations().setEnabled(checking);
+    }
+
+    private void check(AllocationChecker checker, int gameType, StringBuilder failures) {
+        double allocations = checker.getAllocationsPerFrame();
+        if (allocations > MAX_ALLOCATIONS_PER_FRAME) {
+            failures.append(checker.getName()).append(" in game ").append(gameType)
+                    .append(" allocated ").append(allocations).append(" objects a frame over ")
+                    .append(checker.getFrameCount()).append(" frames\n");
+        }
+    }
+
+    private void play(int gameType) {
+        view.initGame(gameType);
+        view.onSizeChanged(width, height, 0, 0);
+        settle();
+        for (int i = 0; i < DEAL_COUNT; i++) {
+            view.deal();
+            settle();
+        }
+        CardAnchor[] anchors = view.getRules().getCardAnchors();
+        for (int i = 0; i < anchors.length; i++) {
+            drag(anchors[i], anchors[(i + 1) % anchors.length], DRAG_STEPS);
+            drag(anchors[i], anchors[(i + anchors.length / 2) % anchors.length], FLING_STEPS);
+        }
+        for (int i = 0; i < UNDO_COUNT; i++) {
+            view.undo();
+            settle();
+        }
+        view.replayGame();
+        settle();
+    }
+
+    // Drags the top card of from to to in steps moves. Few steps over the
+    // same distance make a fling.
+    private void drag(CardAnchor from, CardAnchor to, int steps) {
+        float x = getX(from);
+        float y = getY(from);
+        float toX = getX(to);
+        float toY = getY(to);
+        long downTime = SystemClock.uptimeMillis();
+        touch(downTime, MotionEvent.ACTION_DOWN, x, y);
+        for (int i = 1; i <= steps; i++) {
+            touch(downTime, MotionEvent.ACTION_MOVE, x + (toX - x) * i / steps,
+                    y + (toY - y) * i / steps);
+            view.onDraw(canvas);
+        }
+        touch(downTime, MotionEvent.ACTION_UP, toX, toY);
+        settle();
+    }
+
+    private void touch(long downTime, int action, float x, float y) {
+        MotionEvent event = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), action, x, y, 0);
+        view.onTouchEvent(event);
+        event.recycle();
+    }
+
+    // Centre of the top card of anchor, or of the anchor if it is empty.
+    private float getX(CardAnchor anchor) {
+        int count = anchor.getCount();
+        float x = count == 0 ? anchor.getX() : layout.getX(anchor.getCards()[count - 1]);
+        return x + Card.WIDTH / 2;
+    }
+
+    private float getY(CardAnchor anchor) {
+        int count = anchor.getCount();
+        float y = count == 0 ? anchor.getNewY() : layout.getY(anchor.getCards()[count - 1]);
+        return y + Card.HEIGHT / 2;
+    }
+
+    // Draws frames until the cards stop moving and the rules have handled
+    // their events.
+    private void settle() {
+        view.onDraw(canvas);
+        for (int i = 0; i < MAX_SETTLE_FRAMES && view.isAnimating(); i++) {
+            view.onDraw(canvas);
+        }
+        view.onDraw(canvas);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+
+// Uniform grid over the screen that maps a point to the anchors that could be
+// under it. Each cell holds a bitmask of anchor numbers, so a lookup is a
+// single array read no matter how many anchors the game has. The precise
+// isOver checks still run, but only on the one or two candidates returned.
+class AnchorIndex {
+
+    private static final int CELL_SIZE = 16;
+    private static final int MAX_ANCHORS = 64;
+    private static final long ALL_ANCHORS = -1L;
+
+    private CardAnchor[] anchors;
+    private CardLayout layout;
+    private long[] cells;
+    private int cols;
+    private int rows;
+
+    // Cell rectangle each anchor is currently registered in (left, top, right, bottom).
+    private int[] anchorCells;
+    private float[] bounds;
+    private long dirtyMask;
+
+    public AnchorIndex(CardLayout layout) {
+        this.layout = layout;
+        cols = 0;
+        rows = 0;
+        anchorCells = new int[MAX_ANCHORS * 4];
+        bounds = new float[4];
+        dirtyMask = 0;
+    }
+
+    public void rebuild(CardAnchor[] cardAnchors, int width, int height) {
+        anchors = cardAnchors;
+        cols = (width + CELL_SIZE - 1) / CELL_SIZE;
+        rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        if (cols <= 0 || rows <= 0 || anchors.length > MAX_ANCHORS) {
+            cols = 0;
+            rows = 0;
+            cells = null;
+            return;
+        }
+        cells = new long[cols * rows];
+        for (int i = 0; i < anchors.length; i++) {
+            anchorCells[i * 4] = 0;
+            anchorCells[i * 4 + 1] = 0;
+            anchorCells[i * 4 + 2] = -1;
+            anchorCells[i * 4 + 3] = -1;
+            place(i);
+        }
+        dirtyMask = 0;
+    }
+
+    // Called whenever an anchor's cards or geometry change. The anchor is
+    // re-registered lazily on the next lookup.
+    public void invalidate(int number) {
+        if (number >= 0 && number < MAX_ANCHORS) {
+            dirtyMask |= 1L << number;
+        }
+    }
+
+    // Bitmask of anchors whose touch area may contain (x, y).
+    public long getCandidates(float x, float y) {
+        if (cells == null) {
+            return ALL_ANCHORS;
+        }
+        update();
+        int col = clamp((int) x / CELL_SIZE, cols);
+        int row = clamp((int) y / CELL_SIZE, rows);
+        return cells[row * cols + col];
+    }
+
+    // Finds the anchor a moving stack should land on, trying exact hits before
+    // near misses, and lowest anchor number first so results are stable.
+    public int findDropTarget(MoveCard moveCard) {
+        Card card = moveCard.getTopCard();
+        CardAnchor prevAnchor = moveCard.getAnchor();
+        long candidates = getCandidates(layout.getX(card) + Card.WIDTH / 2, layout.getY(card) + Card.HEIGHT / 2);
+        for (int close = 0; close < 2; close++) {
+            long mask = candidates;
+            while (mask != 0) {
+                int i = Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+                if (i >= anchors.length) {
+                    break;
+                }
+                if (anchors[i] != prevAnchor && anchors[i].canDropCard(moveCard, close)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void update() {
+        while (dirtyMask != 0) {
+            int i = Long.numberOfTrailingZeros(dirtyMask);
+            dirtyMask &= dirtyMask - 1;
+            if (i < anchors.length) {
+                place(i);
+            }
+        }
+    }
+
+    private void place(int idx) {
+        long bit = 1L << idx;
+        int base = idx * 4;
+        for (int row = anchorCells[base + 1]; row <= anchorCells[base + 3]; row++) {
+            for (int col = anchorCells[base]; col <= anchorCells[base + 2]; col++) {
+                cells[row * cols + col] &= ~bit;
+            }
+        }
+
+        anchors[idx].getTouchBounds(bounds);
+        int left = clamp((int) Math.floor(bounds[0] / CELL_SIZE), cols);
+        int top = clamp((int) Math.floor(bounds[1] / CELL_SIZE), rows);
+        int right = clamp((int) Math.floor(bounds[2] / CELL_SIZE), cols);
+        int bottom = clamp((int) Math.floor(bounds[3] / CELL_SIZE), rows);
+        if (bounds[2] < 0 || bounds[3] < 0) {
+            // Entirely off screen (Spider keeps its deal anchors at x = -50).
+            right = -1;
+            bottom = -1;
+        }
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                cells[row * cols + col] |= bit;
+            }
+        }
+        anchorCells[base] = left;
+        anchorCells[base + 1] = top;
+        anchorCells[base + 2] = right;
+        anchorCells[base + 3] = bottom;
+    }
+
+    private static int clamp(int cell, int count) {
+        if (cell < 0) {
+            return 0;
+        }
+        return cell >= count ? count - 1 : cell;
+    }
+}
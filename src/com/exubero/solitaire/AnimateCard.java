@@ -22,6 +22,7 @@ public class AnimateCard {
     private static final float PPF = 40;
 
     protected SolitaireView view;
+    private CardLayout layout;
     private Card[] cards;
     private CardAnchor cardAnchor;
     private int count;
@@ -33,6 +34,7 @@ public class AnimateCard {
 
     public AnimateCard(SolitaireView view) {
         this.view = view;
+        this.layout = view.getCardLayout();
         this.isAnimating = false;
         this.cards = new Card[104];
         this.callback = null;
@@ -45,7 +47,7 @@ public class AnimateCard {
     public void draw(DrawMaster drawMaster, Canvas canvas) {
         if (isAnimating) {
             for (int j = 0; j < count; j++) {
-                cards[j].movePosition(-dx, -dy);
+                layout.movePosition(cards[j], -dx, -dy);
             }
             for (int i = 0; i < count; i++) {
                 drawMaster.drawCard(canvas, cards[i]);
@@ -85,8 +87,8 @@ public class AnimateCard {
     }
 
     private void move(Card card, float x, float y) {
-        float distanceX = x - card.getX();
-        float distanceY = y - card.getY();
+        float distanceX = x - layout.getX(card);
+        float distanceY = y - layout.getY(card);
 
         frames = Math.round((float) Math.sqrt(distanceX * distanceX + distanceY * distanceY) / PPF);
         if (frames == 0) {
@@ -30,16 +30,43 @@ class Card {
     public static int WIDTH = 45;
     public static int HEIGHT = 64;
 
-    private int value;
-    private int suit;
-    private float locationX;
-    private float locationY;
+    // One suit Spider deals eight copies of every card, the most of any game.
+    public static final int MAX_COPIES = 8;
 
-    public Card(int theValue, int theSuit) {
+    // The cards are shared and never change; a game only ever rearranges
+    // references to them. Where a card is drawn lives in CardLayout.
+    private static final Card[] cards = new Card[52 * MAX_COPIES];
+
+    static {
+        for (int copy = 0; copy < MAX_COPIES; copy++) {
+            for (int suit = CLUBS; suit <= HEARTS; suit++) {
+                for (int value = ACE; value <= KING; value++) {
+                    int serial = copy * 52 + suit * 13 + value - 1;
+                    cards[serial] = new Card(value, suit, serial);
+                }
+            }
+        }
+    }
+
+    private final int value;
+    private final int suit;
+    private final int serial;
+
+    private Card(int theValue, int theSuit, int theSerial) {
         value = theValue;
         suit = theSuit;
-        locationX = 1;
-        locationY = 1;
+        serial = theSerial;
+    }
+
+    // The shared card of the given value and suit. Games with more than one
+    // deck tell the identical cards apart by copy.
+    public static Card get(int value, int suit, int copy) {
+        return cards[copy * 52 + suit * 13 + value - 1];
+    }
+
+    // The card with the given serial, as getSerial returns it.
+    public static Card get(int serial) {
+        return cards[serial];
     }
 
     public static void setSize(int type) {
@@ -55,14 +82,6 @@ class Card {
         }
     }
 
-    public float getX() {
-        return locationX;
-    }
-
-    public float getY() {
-        return locationY;
-    }
-
     public int getValue() {
         return value;
     }
@@ -71,14 +90,14 @@ class Card {
         return suit;
     }
 
-    public void setPosition(float x, float y) {
-        locationX = x;
-        locationY = y;
+    // 0 to 51, unique per suit and value.
+    public int getIdentity() {
+        return suit * 13 + value - 1;
     }
 
-    public void movePosition(float dx, float dy) {
-        locationX -= dx;
-        locationY -= dy;
+    // Which of the MAX_COPIES copies this is, times 52, plus the identity.
+    public int getSerial() {
+        return serial;
     }
 }
 
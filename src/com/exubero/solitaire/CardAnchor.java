@@ -30,8 +30,13 @@ class CardAnchor {
     public static final int FREECELL_HOLD = 7;
     public static final int GENERIC_ANCHOR = 8;
 
+    // Floats per anchor in a saved frame: position, max height and edges.
+    public static final int FRAME_SIZE = 6;
+
     private int number;
+    private int type;
     protected Rules rules;
+    protected CardLayout layout;
     protected float locationX;
     protected float locationY;
     protected Card[] cards;
@@ -54,6 +59,12 @@ class CardAnchor {
     protected int mPICKUP;
     protected int mDISPLAY;
     protected int mHACK;
+    protected RuleTable ruleTable;
+
+    // runLength[i] is the length of the run of cards that can be picked up
+    // together ending at card i, hidden cards included. Kept up to date as
+    // cards are added so the top run is known without rescanning the stack.
+    protected int[] runLength;
 
     // ==========================================================================
     // Create a CardAnchor
@@ -88,6 +99,7 @@ class CardAnchor {
         }
         ret.setRules(rules);
         ret.setNumber(number);
+        ret.type = type;
         return ret;
     }
 
@@ -95,6 +107,7 @@ class CardAnchor {
         locationX = 1;
         locationY = 1;
         cards = new Card[MAX_CARDS];
+        runLength = new int[MAX_CARDS];
         cardCount = 0;
         hiddenCount = 0;
         leftEdge = -1;
@@ -127,6 +140,11 @@ class CardAnchor {
         return number;
     }
 
+    // The kind of anchor it was created as, one of the constants above.
+    public int getType() {
+        return type;
+    }
+
     public float getRightEdge() {
         return rightEdge;
     }
@@ -152,37 +170,65 @@ class CardAnchor {
     }
 
     public void setBottom(float edge) {
+        if (edge == bottom) {
+            return;
+        }
         bottom = edge;
+        boundsChanged();
     }
 
     public void setHiddenCount(int count) {
         hiddenCount = count;
+        boundsChanged();
+    }
+
+    // Cards no one has seen the face of yet, which are the face down ones
+    // except in the stock. This is what a saved game or a Deal keeps.
+    public int getUnseenCount() {
+        return hiddenCount;
+    }
+
+    public void setUnseenCount(int count) {
+        setHiddenCount(count);
     }
 
     public void setLeftEdge(float edge) {
+        if (edge == leftEdge) {
+            return;
+        }
         leftEdge = edge;
+        boundsChanged();
     }
 
     public void setMaxHeight(int maxHeight) {
     }
 
+    public int getMaxHeight() {
+        return 0;
+    }
+
     public void setNumber(int number) {
         this.number = number;
     }
 
     public void setRightEdge(float edge) {
+        if (edge == rightEdge) {
+            return;
+        }
         rightEdge = edge;
+        boundsChanged();
     }
 
     public void setRules(Rules rules) {
         this.rules = rules;
+        layout = rules.getCardLayout();
     }
 
     public void setShowing(int showing) {
     }
 
     protected void setCardPosition(int idx) {
-        cards[idx].setPosition(locationX, locationY);
+        layout.setPosition(cards[idx], locationX, locationY);
     }
 
     public void setDone(boolean done) {
@@ -192,28 +238,34 @@ class CardAnchor {
     //Methods for GenericAnchor
     public void setStartSeq(int seq) {
         mSTARTSEQ = seq;
+        rulesChanged();
     }
 
     public void setSeq(int seq) {
         mBUILDSEQ = seq;
         mMOVESEQ = seq;
+        rulesChanged();
     }
 
     public void setBuildSeq(int buildseq) {
         mBUILDSEQ = buildseq;
+        rulesChanged();
     }
 
     public void setMoveSeq(int moveseq) {
         mMOVESEQ = moveseq;
+        rulesChanged();
     }
 
     public void setWrap(boolean wrap) {
         mBUILDWRAP = wrap;
         mMOVEWRAP = wrap;
+        rulesChanged();
     }
 
     public void setMoveWrap(boolean movewrap) {
         mMOVEWRAP = movewrap;
+        rulesChanged();
     }
 
     public void setBuildWrap(boolean buildwrap) {
@@ -223,14 +275,17 @@ class CardAnchor {
     public void setSuit(int suit) {
         mBUILDSUIT = suit;
         mMOVESUIT = suit;
+        rulesChanged();
     }
 
     public void setBuildSuit(int buildsuit) {
         mBUILDSUIT = buildsuit;
+        rulesChanged();
     }
 
     public void setMoveSuit(int movesuit) {
         mMOVESUIT = movesuit;
+        rulesChanged();
     }
 
     public void setBehavior(int beh) {
@@ -253,14 +308,70 @@ class CardAnchor {
     public void setHack(int hack) {
         mHACK = hack;
     }
+
+    // Building rules for the solvers, or null if nothing is built here.
+    public RuleTable getRuleTable() {
+        return null;
+    }
+
+    public int getPickup() {
+        return mPICKUP;
+    }
+
+    public int getDropoff() {
+        return mDROPOFF;
+    }
+
+    protected void rulesChanged() {
+        ruleTable = null;
+        for (int i = 0; i < cardCount; i++) {
+            updateRun(i);
+        }
+    }
     //End Methods for Generic Anchor
 
     public void setPosition(float x, float y) {
+        if (x == locationX && y == locationY) {
+            return;
+        }
         locationX = x;
         locationY = y;
+        layoutCards();
+    }
+
+    // Puts every card where it belongs for the current position and spacing.
+    protected void layoutCards() {
         for (int i = 0; i < cardCount; i++) {
             setCardPosition(i);
         }
+        boundsChanged();
+    }
+
+    // Copies the frame the rules gave this anchor into frame at offset.
+    public void saveFrame(float[] frame, int offset) {
+        frame[offset] = locationX;
+        frame[offset + 1] = locationY;
+        frame[offset + 2] = getMaxHeight();
+        frame[offset + 3] = leftEdge;
+        frame[offset + 4] = rightEdge;
+        frame[offset + 5] = bottom;
+    }
+
+    // Applies a frame from saveFrame. Only what differs is updated, so cards
+    // are moved only if the anchor or its spacing actually changed.
+    public void restoreFrame(float[] frame, int offset) {
+        setPosition(frame[offset], frame[offset + 1]);
+        setMaxHeight((int) frame[offset + 2]);
+        setLeftEdge(frame[offset + 3]);
+        setRightEdge(frame[offset + 4]);
+        setBottom(frame[offset + 5]);
+    }
+
+    // Lets the rules know the touch area of this anchor may have moved.
+    protected void boundsChanged() {
+        if (rules != null) {
+            rules.anchorChanged(this);
+        }
     }
 
     // ==========================================================================
@@ -268,7 +379,11 @@ class CardAnchor {
     // ----------------------
     public void addCard(Card card) {
         cards[cardCount++] = card;
+        updateRun(cardCount - 1);
         setCardPosition(cardCount - 1);
+        rules.getInvariantChecker().cardAdded(card);
+        rules.cardCountChanged(this);
+        boundsChanged();
     }
 
     public void addMoveCard(MoveCard moveCard) {
@@ -284,6 +399,24 @@ class CardAnchor {
         return false;
     }
 
+    // True if above can be picked up together with below, the card under it.
+    // Stacks that move runs of cards override this.
+    protected boolean continuesRun(Card below, Card above) {
+        return false;
+    }
+
+    private void updateRun(int idx) {
+        if (idx > 0 && continuesRun(cards[idx - 1], cards[idx])) {
+            runLength[idx] = runLength[idx - 1] + 1;
+        } else {
+            runLength[idx] = 1;
+        }
+    }
+
+    protected int getTopRunLength() {
+        return cardCount > 0 ? runLength[cardCount - 1] : 0;
+    }
+
     public boolean canDropCard(MoveCard moveCard, int close) {
         return false;
     }
@@ -306,9 +439,49 @@ class CardAnchor {
     public Card popCard() {
         Card ret = cards[--cardCount];
         cards[cardCount] = null;
+        rules.getInvariantChecker().cardRemoved(ret);
+        rules.cardCountChanged(this);
+        boundsChanged();
         return ret;
     }
 
+    // Block versions of addCard and popCard. popCards takes the top count
+    // cards off with the top card first in out, addCards puts them on with
+    // newCards[0] first. Anchors that redo their layout after every card
+    // override these to do it once per block.
+    public void addCards(Card[] newCards, int count) {
+        for (int i = 0; i < count; i++) {
+            addCard(newCards[i]);
+        }
+    }
+
+    public void popCards(Card[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = popCard();
+        }
+    }
+
+    protected void appendCards(Card[] newCards, int count) {
+        for (int i = 0; i < count; i++) {
+            cards[cardCount++] = newCards[i];
+            updateRun(cardCount - 1);
+            setCardPosition(cardCount - 1);
+            rules.getInvariantChecker().cardAdded(newCards[i]);
+        }
+        rules.cardCountChanged(this);
+        boundsChanged();
+    }
+
+    protected void removeCards(Card[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = cards[--cardCount];
+            cards[cardCount] = null;
+            rules.getInvariantChecker().cardRemoved(out[i]);
+        }
+        rules.cardCountChanged(this);
+        boundsChanged();
+    }
+
     // ==========================================================================
     // Functions to interact with cards
     // --------------------------------
@@ -336,12 +509,27 @@ class CardAnchor {
     // ==========================================================================
     // Functions to check locations
     // ----------------------------
+
+    // The largest area any of the isOver checks below can match. Used by
+    // AnchorIndex to narrow down which anchors a touch needs to be tested on.
+    public void getTouchBounds(float[] bounds) {
+        float clx = cardCount == 0 ? locationX : layout.getX(cards[cardCount - 1]);
+        float botY = cardCount > 0 ? layout.getY(cards[cardCount - 1]) : locationY;
+        bounds[0] = (leftEdge == -1 ? clx : leftEdge) - Card.WIDTH / 2;
+        bounds[1] = locationY - Card.HEIGHT / 2;
+        bounds[2] = (rightEdge == -1 ? clx + Card.WIDTH : rightEdge) + Card.WIDTH / 2;
+        bounds[3] = botY + Card.HEIGHT + Card.HEIGHT / 2;
+        if (bottom != -1 && bounds[3] + 10 >= bottom) {
+            bounds[3] = bottom;
+        }
+    }
+
     private boolean isOver(float x, float y, boolean deck, int close) {
-        float clx = cardCount == 0 ? locationX : cards[cardCount - 1].getX();
+        float clx = cardCount == 0 ? locationX : layout.getX(cards[cardCount - 1]);
         float leftX = leftEdge == -1 ? clx : leftEdge;
         float rightX = rightEdge == -1 ? clx + Card.WIDTH : rightEdge;
-        float topY = (cardCount == 0 || deck) ? locationY : cards[cardCount - 1].getY();
-        float botY = cardCount > 0 ? cards[cardCount - 1].getY() : locationY;
+        float topY = (cardCount == 0 || deck) ? locationY : layout.getY(cards[cardCount - 1]);
+        float botY = cardCount > 0 ? layout.getY(cards[cardCount - 1]) : locationY;
         botY += Card.HEIGHT;
 
         leftX -= close * Card.WIDTH / 2;
@@ -398,14 +586,14 @@ class DealTo extends CardAnchor {
     @Override
     protected void setCardPosition(int idx) {
         if (showingCount == 1) {
-            cards[idx].setPosition(locationX, locationY);
+            layout.setPosition(cards[idx], locationX, locationY);
         } else {
             if (idx < cardCount - showingCount) {
-                cards[idx].setPosition(locationX, locationY);
+                layout.setPosition(cards[idx], locationX, locationY);
             } else {
                 int offset = cardCount - showingCount;
                 offset = offset < 0 ? 0 : offset;
-                cards[idx].setPosition(locationX + (idx - offset) * Card.WIDTH / 2, locationY);
+                layout.setPosition(cards[idx], locationX + (idx - offset) * Card.WIDTH / 2, locationY);
             }
         }
     }
@@ -413,22 +601,34 @@ class DealTo extends CardAnchor {
     @Override
     public void addCard(Card card) {
         super.addCard(card);
-        setPosition(locationX, locationY);
+        layoutCards();
     }
 
     @Override
     public boolean unhideTopCard() {
-        setPosition(locationX, locationY);
+        layoutCards();
         return false;
     }
 
     @Override
     public Card popCard() {
         Card ret = super.popCard();
-        setPosition(locationX, locationY);
+        layoutCards();
         return ret;
     }
 
+    @Override
+    public void addCards(Card[] newCards, int count) {
+        appendCards(newCards, count);
+        layoutCards();
+    }
+
+    @Override
+    public void popCards(Card[] out, int count) {
+        removeCards(out, count);
+        layoutCards();
+    }
+
     @Override
     public void draw(DrawMaster drawMaster, Canvas canvas) {
         if (cardCount == 0) {
@@ -461,9 +661,16 @@ class SeqStack extends CardAnchor {
 
     @Override
     public void setMaxHeight(int maxHeight) {
+        if (maxHeight == this.maxHeight) {
+            return;
+        }
         this.maxHeight = maxHeight;
         checkSizing();
-        setPosition(locationX, locationY);
+    }
+
+    @Override
+    public int getMaxHeight() {
+        return maxHeight;
     }
 
     // This can't be a constant as Card.HEIGHT isn't constant.
@@ -475,14 +682,14 @@ class SeqStack extends CardAnchor {
     protected void setCardPosition(int idx) {
         if (idx < hiddenCount) {
             if (hideHidden) {
-                cards[idx].setPosition(locationX, locationY);
+                layout.setPosition(cards[idx], locationX, locationY);
             } else {
-                cards[idx].setPosition(locationX, locationY + HIDDEN_SPACING * idx);
+                layout.setPosition(cards[idx], locationX, locationY + HIDDEN_SPACING * idx);
             }
         } else {
             int startY = hideHidden ? HIDDEN_SPACING : hiddenCount * HIDDEN_SPACING;
             int y = (int) locationY + startY + (idx - hiddenCount) * spacing;
-            cards[idx].setPosition(locationX, y);
+            layout.setPosition(cards[idx], locationX, y);
         }
     }
 
@@ -490,7 +697,7 @@ class SeqStack extends CardAnchor {
     public void setHiddenCount(int count) {
         super.setHiddenCount(count);
         checkSizing();
-        setPosition(locationX, locationY);
+        layoutCards();
     }
 
     @Override
@@ -506,6 +713,12 @@ class SeqStack extends CardAnchor {
         return ret;
     }
 
+    @Override
+    public void popCards(Card[] out, int count) {
+        removeCards(out, count);
+        checkSizing();
+    }
+
     @Override
     public boolean expandStack(float x, float y) {
         if (isOverDeck(x, y)) {
@@ -529,40 +742,39 @@ class SeqStack extends CardAnchor {
             drawMaster.drawEmptyAnchor(canvas, locationX, locationY, isDone);
         } else {
             for (int i = 0; i < cardCount; i++) {
+                Card cover = i + 1 < cardCount ? cards[i + 1] : null;
                 if (i < hiddenCount) {
-                    drawMaster.drawHiddenCard(canvas, cards[i]);
+                    drawMaster.drawHiddenCard(canvas, cards[i], cover);
                 } else {
-                    drawMaster.drawCard(canvas, cards[i]);
+                    drawMaster.drawCard(canvas, cards[i], cover);
                 }
             }
         }
     }
 
+    // Works out the spacing for the current counts and moves the cards only
+    // if it changed.
     private void checkSizing() {
-        if (cardCount < 2 || cardCount - hiddenCount < 2) {
-            spacing = getMaxSpacing();
-            hideHidden = false;
-            return;
-        }
-        int max = maxHeight;
-        int hidden = hiddenCount;
-        int showing = cardCount - hidden;
-        int spaceLeft = max - (hidden * HIDDEN_SPACING) - Card.HEIGHT;
-        int spacing = spaceLeft / (showing - 1);
-
-        if (spacing < SMALL_SPACING && hidden > 1) {
-            hideHidden = true;
-            spaceLeft = max - HIDDEN_SPACING - Card.HEIGHT;
+        int spacing = getMaxSpacing();
+        boolean hideHidden = false;
+        if (cardCount >= 2 && cardCount - hiddenCount >= 2) {
+            int hidden = hiddenCount;
+            int showing = cardCount - hidden;
+            int spaceLeft = maxHeight - (hidden * HIDDEN_SPACING) - Card.HEIGHT;
             spacing = spaceLeft / (showing - 1);
-        } else {
-            hideHidden = false;
-            if (spacing > getMaxSpacing()) {
+
+            if (spacing < SMALL_SPACING && hidden > 1) {
+                hideHidden = true;
+                spaceLeft = maxHeight - HIDDEN_SPACING - Card.HEIGHT;
+                spacing = spaceLeft / (showing - 1);
+            } else if (spacing > getMaxSpacing()) {
                 spacing = getMaxSpacing();
             }
         }
-        if (spacing != this.spacing) {
+        if (spacing != this.spacing || hideHidden != this.hideHidden) {
             this.spacing = spacing;
-            setPosition(locationX, locationY);
+            this.hideHidden = hideHidden;
+            layoutCards();
         }
     }
 
@@ -570,13 +782,37 @@ class SeqStack extends CardAnchor {
         if (cardCount == 0) {
             return locationY;
         }
-        return cards[cardCount - 1].getY() + spacing;
+        return layout.getY(cards[cardCount - 1]) + spacing;
     }
 }
 
 // Anchor where cards to deal come from
 class DealFrom extends CardAnchor {
 
+    // Cards at the bottom that have never been turned up. Cards only come
+    // back after being shown, by a redeal or an undo, so they go on top, and
+    // an undo doesn't make a card unseen again.
+    private int unseenCount;
+
+    @Override
+    public int getUnseenCount() {
+        return unseenCount;
+    }
+
+    @Override
+    public void setUnseenCount(int count) {
+        unseenCount = count;
+    }
+
+    @Override
+    public Card popCard() {
+        Card card = super.popCard();
+        if (unseenCount > cardCount) {
+            unseenCount = cardCount;
+        }
+        return card;
+    }
+
     @Override
     public Card grabCard(float x, float y) {
         return null;
@@ -613,10 +849,10 @@ class SeqSink extends CardAnchor {
     @Override
     public boolean canDropCard(MoveCard moveCard, int close) {
         Card card = moveCard.getTopCard();
-        float x = card.getX() + Card.WIDTH / 2;
-        float y = card.getY() + Card.HEIGHT / 2;
+        float x = layout.getX(card) + Card.WIDTH / 2;
+        float y = layout.getY(card) + Card.HEIGHT / 2;
         Card topCard = cardCount > 0 ? cards[cardCount - 1] : null;
-        float my = cardCount > 0 ? topCard.getY() : locationY;
+        float my = cardCount > 0 ? layout.getY(topCard) : locationY;
 
         if (isOverCard(x, y, close)) {
             if (moveCard.getCount() == 1) {
@@ -651,10 +887,10 @@ class SuitSeqStack extends SeqStack {
     public boolean canDropCard(MoveCard moveCard, int close) {
 
         Card card = moveCard.getTopCard();
-        float x = card.getX() + Card.WIDTH / 2;
-        float y = card.getY() + Card.HEIGHT / 2;
+        float x = layout.getX(card) + Card.WIDTH / 2;
+        float y = layout.getY(card) + Card.HEIGHT / 2;
         Card topCard = cardCount > 0 ? cards[cardCount - 1] : null;
-        float my = cardCount > 0 ? topCard.getY() : locationY;
+        float my = cardCount > 0 ? layout.getY(topCard) : locationY;
 
         if (isOverCard(x, y, close)) {
             if (topCard == null) {
@@ -700,10 +936,10 @@ class SpiderStack extends SeqStack {
     public boolean canDropCard(MoveCard moveCard, int close) {
 
         Card card = moveCard.getTopCard();
-        float x = card.getX() + Card.WIDTH / 2;
-        float y = card.getY() + Card.HEIGHT / 2;
+        float x = layout.getX(card) + Card.WIDTH / 2;
+        float y = layout.getY(card) + Card.HEIGHT / 2;
         Card topCard = cardCount > 0 ? cards[cardCount - 1] : null;
-        float my = cardCount > 0 ? topCard.getY() : locationY;
+        float my = cardCount > 0 ? layout.getY(topCard) : locationY;
 
         if (isOverCard(x, y, close)) {
             if (topCard == null || card.getValue() == topCard.getValue() - 1) {
@@ -714,22 +950,17 @@ class SpiderStack extends SeqStack {
         return false;
     }
 
+    @Override
+    protected boolean continuesRun(Card below, Card above) {
+        return below.getSuit() == above.getSuit() && below.getValue() == above.getValue() + 1;
+    }
+
     @Override
     public int getMovableCount() {
         if (cardCount < 2)
             return cardCount;
 
-        int retCount = 1;
-        int suit = cards[cardCount - 1].getSuit();
-        int val = cards[cardCount - 1].getValue();
-
-        for (int i = cardCount - 2; i >= hiddenCount; i--, retCount++, val++) {
-            if (cards[i].getSuit() != suit || cards[i].getValue() != val + 1) {
-                break;
-            }
-        }
-
-        return retCount;
+        return Math.max(1, Math.min(getTopRunLength(), getVisibleCount()));
     }
 
     @Override
@@ -761,7 +992,7 @@ class SpiderStack extends SeqStack {
     @Override
     public boolean canMoveStack(float x, float y) {
         if (super.expandStack(x, y)) {
-            float maxY = cards[cardCount - getMovableCount()].getY();
+            float maxY = layout.getY(cards[cardCount - getMovableCount()]);
 
             if (y >= maxY - Card.HEIGHT / 2) {
                 return true;
@@ -779,15 +1010,16 @@ class FreecellStack extends SeqStack {
     public boolean canDropCard(MoveCard moveCard, int close) {
 
         Card card = moveCard.getTopCard();
-        float x = card.getX() + Card.WIDTH / 2;
-        float y = card.getY() + Card.HEIGHT / 2;
+        float x = layout.getX(card) + Card.WIDTH / 2;
+        float y = layout.getY(card) + Card.HEIGHT / 2;
         Card topCard = cardCount > 0 ? cards[cardCount - 1] : null;
 
         if (isOverCard(x, y, close)) {
+            if (moveCard.getCount() > rules.getMoveLimit(moveCard.getAnchor(), this)) {
+                return false;
+            }
             if (topCard == null) {
-                if (rules.countFreeSpaces() >= moveCard.getCount()) {
-                    return true;
-                }
+                return true;
             } else if ((card.getSuit() & 1) != (topCard.getSuit() & 1) &&
                     card.getValue() == topCard.getValue() - 1) {
                 return true;
@@ -797,22 +1029,35 @@ class FreecellStack extends SeqStack {
         return false;
     }
 
+    @Override
+    protected boolean continuesRun(Card below, Card above) {
+        return (below.getSuit() & 1) != (above.getSuit() & 1) &&
+                below.getValue() == above.getValue() + 1;
+    }
+
+    // The rules above as a GenericAnchor would describe them.
+    @Override
+    public RuleTable getRuleTable() {
+        return RuleTable.get(GenericAnchor.START_ANY, GenericAnchor.SEQ_DSC, GenericAnchor.SUIT_RB,
+                GenericAnchor.SEQ_ASC, GenericAnchor.SUIT_RB, false);
+    }
+
+    @Override
+    public int getPickup() {
+        return GenericAnchor.PACK_LIMIT_BY_FREE;
+    }
+
+    @Override
+    public int getDropoff() {
+        return GenericAnchor.PACK_LIMIT_BY_FREE;
+    }
+
     @Override
     public int getMovableCount() {
         if (cardCount < 2)
             return cardCount;
 
-        int retCount = 1;
-        int maxMoveCount = rules.countFreeSpaces() + 1;
-
-        for (int i = cardCount - 2; i >= 0 && retCount < maxMoveCount; i--, retCount++) {
-            if ((cards[i].getSuit() & 1) == (cards[i + 1].getSuit() & 1) ||
-                    cards[i].getValue() != cards[i + 1].getValue() + 1) {
-                break;
-            }
-        }
-
-        return retCount;
+        return Math.min(getTopRunLength(), rules.getMoveLimit(this, null));
     }
 
     @Override
@@ -844,7 +1089,7 @@ class FreecellStack extends SeqStack {
     @Override
     public boolean canMoveStack(float x, float y) {
         if (super.expandStack(x, y)) {
-            float maxY = cards[cardCount - getMovableCount()].getY();
+            float maxY = layout.getY(cards[cardCount - getMovableCount()]);
             if (y >= maxY - Card.HEIGHT / 2) {
                 return true;
             }
@@ -860,7 +1105,7 @@ class FreecellHold extends CardAnchor {
     public boolean canDropCard(MoveCard moveCard, int close) {
         Card card = moveCard.getTopCard();
         if (cardCount == 0 && moveCard.getCount() == 1 &&
-                isOverCard(card.getX() + Card.WIDTH / 2, card.getY() + Card.HEIGHT / 2, close)) {
+                isOverCard(layout.getX(card) + Card.WIDTH / 2, layout.getY(card) + Card.HEIGHT / 2, close)) {
             return true;
         }
         return false;
@@ -874,6 +1119,7 @@ class GenericAnchor extends CardAnchor {
     //Sequence start values
     public static final int START_ANY = 1; // An empty stack can take any card.
     public static final int START_KING = 2; // An empty stack can take only a king.
+    public static final int START_NONE = 3; // An empty stack stays empty.
 
     //Value Sequences
     public static final int SEQ_ANY = 1; //You can build as you like
@@ -927,23 +1173,30 @@ class GenericAnchor extends CardAnchor {
 
     @Override
     public void setMaxHeight(int maxHeight) {
+        if (maxHeight == this.maxHeight) {
+            return;
+        }
         this.maxHeight = maxHeight;
         checkSizing();
-        setPosition(locationX, locationY);
+    }
+
+    @Override
+    public int getMaxHeight() {
+        return maxHeight;
     }
 
     @Override
     protected void setCardPosition(int idx) {
         if (idx < hiddenCount) {
             if (hideHidden) {
-                cards[idx].setPosition(locationX, locationY);
+                layout.setPosition(cards[idx], locationX, locationY);
             } else {
-                cards[idx].setPosition(locationX, locationY + HIDDEN_SPACING * idx);
+                layout.setPosition(cards[idx], locationX, locationY + HIDDEN_SPACING * idx);
             }
         } else {
             int startY = hideHidden ? HIDDEN_SPACING : hiddenCount * HIDDEN_SPACING;
             int y = (int) locationY + startY + (idx - hiddenCount) * spacing;
-            cards[idx].setPosition(locationX, y);
+            layout.setPosition(cards[idx], locationX, y);
         }
     }
 
@@ -951,7 +1204,7 @@ class GenericAnchor extends CardAnchor {
     public void setHiddenCount(int count) {
         super.setHiddenCount(count);
         checkSizing();
-        setPosition(locationX, locationY);
+        layoutCards();
     }
 
     @Override
@@ -970,6 +1223,12 @@ class GenericAnchor extends CardAnchor {
         return ret;
     }
 
+    @Override
+    public void popCards(Card[] out, int count) {
+        removeCards(out, count);
+        checkSizing();
+    }
+
     @Override
     public boolean canDropCard(MoveCard moveCard, int close) {
         if (mDROPOFF == GenericAnchor.PACK_NONE) {
@@ -977,81 +1236,42 @@ class GenericAnchor extends CardAnchor {
         }
 
         Card card = moveCard.getTopCard();
-        float x = card.getX() + Card.WIDTH / 2;
-        float y = card.getY() + Card.HEIGHT / 2;
+        float x = layout.getX(card) + Card.WIDTH / 2;
+        float y = layout.getY(card) + Card.HEIGHT / 2;
         //Card topCard = cardCount > 0 ? cards[cardCount - 1] : null;
-        //float my = cardCount > 0 ? topCard.getY() : locationY;
+        //float my = cardCount > 0 ? layout.getY(topCard) : locationY;
         if (isOverCard(x, y, close)) {
             return canBuildCard(card);
         }
         return false;
     }
 
+    @Override
+    public boolean dropSingleCard(Card card) {
+        return mDROPOFF != GenericAnchor.PACK_NONE && canBuildCard(card);
+    }
+
     public boolean canBuildCard(Card card) {
-        // SEQ_ANY will allow all
-        if (mBUILDSEQ == GenericAnchor.SEQ_ANY) {
-            return true;
-        }
         Card topCard = cardCount > 0 ? cards[cardCount - 1] : null;
-        // Rules for empty stacks
         if (topCard == null) {
-            switch (mSTARTSEQ) {
-                case GenericAnchor.START_KING:
-                    return card.getValue() == Card.KING;
-                case GenericAnchor.START_ANY:
-                default:
-                    return true;
-            }
+            return getRuleTable().canStart(card);
         }
-        int value = card.getValue();
-        int suit = card.getSuit();
-        int tvalue = topCard.getValue();
-        int tsuit = topCard.getSuit();
-        // Fail if sequence is wrong
-        switch (mBUILDSEQ) {
-            //WRAP_NOWRAP=1; //Building stacks do not wrap
-            //WRAP_WRAP=2;   //Building stacks wraps around
-            case GenericAnchor.SEQ_ASC:
-                if (value - tvalue != 1) {
-                    return false;
-                }
-                break;
-            case GenericAnchor.SEQ_DSC:
-                if (tvalue - value != 1) {
-                    return false;
-                }
-                break;
-            case GenericAnchor.SEQ_SEQ:
-                if (Math.abs(tvalue - value) != 1) {
-                    return false;
-                }
-                break;
-        }
-        // Fail if suit is wrong
-        switch (mBUILDSUIT) {
-            case GenericAnchor.SUIT_RB:
-                if (Math.abs(tsuit - suit) % 2 == 0) {
-                    return false;
-                }
-                break;
-            case GenericAnchor.SUIT_OTHER:
-                if (tsuit == suit) {
-                    return false;
-                }
-                break;
-            case GenericAnchor.SUIT_COLOR:
-                if (Math.abs(tsuit - suit) != 2) {
-                    return false;
-                }
-                break;
-            case GenericAnchor.SUIT_SAME:
-                if (tsuit != suit) {
-                    return false;
-                }
-                break;
+        return getRuleTable().canBuild(topCard, card);
+    }
+
+    @Override
+    protected boolean continuesRun(Card below, Card above) {
+        return getRuleTable().canMove(below, above);
+    }
+
+    // The configuration compiled into lookup tables, rebuilt after any of the
+    // rule setters is called.
+    @Override
+    public RuleTable getRuleTable() {
+        if (ruleTable == null) {
+            ruleTable = RuleTable.get(mSTARTSEQ, mBUILDSEQ, mBUILDSUIT, mMOVESEQ, mMOVESUIT, mMOVEWRAP);
         }
-        // Passes all rules
-        return true;
+        return ruleTable;
     }
 
     @Override
@@ -1060,36 +1280,27 @@ class GenericAnchor extends CardAnchor {
             drawMaster.drawEmptyAnchor(canvas, locationX, locationY, isDone);
             return;
         }
+        for (int i = 0; i < cardCount; i++) {
+            Card cover = i + 1 < cardCount ? cards[i + 1] : null;
+            if (isShowing(i)) {
+                drawMaster.drawCard(canvas, cards[i], cover);
+            } else {
+                drawMaster.drawHiddenCard(canvas, cards[i], cover);
+            }
+        }
+    }
+
+    // Whether the card at idx is drawn face up.
+    private boolean isShowing(int idx) {
         switch (mDISPLAY) {
-            case GenericAnchor.DISPLAY_ALL:
-                for (int i = 0; i < cardCount; i++) {
-                    drawMaster.drawCard(canvas, cards[i]);
-                }
-                break;
             case GenericAnchor.DISPLAY_HIDE:
-                for (int i = 0; i < cardCount; i++) {
-                    drawMaster.drawHiddenCard(canvas, cards[i]);
-                }
-                break;
+                return false;
             case GenericAnchor.DISPLAY_MIX:
-                for (int i = 0; i < cardCount; i++) {
-                    if (i < hiddenCount) {
-                        drawMaster.drawHiddenCard(canvas, cards[i]);
-                    } else {
-                        drawMaster.drawCard(canvas, cards[i]);
-                    }
-                }
-                break;
+                return idx >= hiddenCount;
             case GenericAnchor.DISPLAY_ONE:
-                for (int i = 0; i < cardCount; i++) {
-                    if (i < cardCount - 1) {
-                        drawMaster.drawHiddenCard(canvas, cards[i]);
-                    } else {
-                        drawMaster.drawCard(canvas, cards[i]);
-                    }
-                }
-                break;
+                return idx == cardCount - 1;
         }
+        return true;
     }
 
     @Override
@@ -1128,58 +1339,7 @@ class GenericAnchor extends CardAnchor {
         if (visibleCount == 0 || mPICKUP == GenericAnchor.PACK_NONE) {
             return 0;
         }
-        int seq_allowed = 1;
-        if (visibleCount > 1) {
-            int i = cardCount - 1;
-            boolean g;
-            boolean h;
-            do {
-                g = true;
-                h = true;
-                switch (mMOVESEQ) {
-                    case GenericAnchor.SEQ_ANY:
-                        h = true;
-                        break;
-                    case GenericAnchor.SEQ_ASC:
-                        h = this.isSequenceAscending(i - 1, i, mMOVEWRAP);
-                        break;
-                    case GenericAnchor.SEQ_DSC:
-                        h = this.isSequenceAscending(i, i - 1, mMOVEWRAP);
-                        break;
-                    case GenericAnchor.SEQ_SEQ:
-                        h = (this.isSequenceAscending(i, i - 1, mMOVEWRAP) ||
-                                this.isSequenceAscending(i - 1, i, mMOVEWRAP));
-                        break;
-                }
-                if (h == false) {
-                    g = false;
-                }
-                switch (mMOVESUIT) {
-                    case GenericAnchor.SUIT_ANY:
-                        h = true;
-                        break;
-                    case GenericAnchor.SUIT_COLOR:
-                        h = !this.isSuitsOppositeColours(i - 1, i);
-                        break;
-                    case GenericAnchor.SUIT_OTHER:
-                        h = this.isSuitsNotEqual(i - 1, i);
-                        break;
-                    case GenericAnchor.SUIT_RB:
-                        h = this.isSuitsOppositeColours(i - 1, i);
-                        break;
-                    case GenericAnchor.SUIT_SAME:
-                        h = this.isSuitsEqual(i - 1, i);
-                        break;
-                }
-                if (h == false) {
-                    g = false;
-                }
-                if (g) {
-                    seq_allowed++;
-                }
-                i--;
-            } while (g && (cardCount - i) < visibleCount);
-        }
+        int seq_allowed = Math.min(getTopRunLength(), visibleCount);
 
         switch (mPICKUP) {
             case GenericAnchor.PACK_NONE:
@@ -1193,78 +1353,35 @@ class GenericAnchor extends CardAnchor {
                 //seq_allowed = Math.min( xmin, seq_allowed);
                 break;
             case GenericAnchor.PACK_LIMIT_BY_FREE:
-                seq_allowed = Math.min(rules.countFreeSpaces() + 1, seq_allowed);
+                seq_allowed = Math.min(rules.getMoveLimit(this, null), seq_allowed);
                 break;
         }
         return seq_allowed;
     }
 
-    public boolean isSequenceAscending(int p1, int p2, boolean wrap) {
-        Card c1 = cards[p1];
-        Card c2 = cards[p2];
-        int v1 = c1.getValue();
-        int v2 = c2.getValue();
-
-        if (v2 + 1 == v1) {
-            return true;
-        }
-        if (wrap) {
-            if (v2 == Card.KING && v1 == Card.ACE) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    public boolean isSuitsOppositeColours(int p1, int p2) {
-        Card c1 = cards[p1];
-        Card c2 = cards[p2];
-        int s1 = c1.getSuit();
-        int s2 = c2.getSuit();
-        if ((s1 == Card.CLUBS || s1 == Card.SPADES) &&
-                (s2 == Card.HEARTS || s2 == Card.DIAMONDS)) {
-            return true;
-        }
-        if ((s1 == Card.HEARTS || s1 == Card.DIAMONDS) &&
-                (s2 == Card.CLUBS || s2 == Card.SPADES)) {
-            return true;
-        }
-        return false;
-    }
-
-    public boolean isSuitsEqual(int p1, int p2) {
-        return (cards[p1].getSuit() == cards[p2].getSuit());
-    }
-
-    public boolean isSuitsNotEqual(int p1, int p2) {
-        return (cards[p1].getSuit() != cards[p2].getSuit());
-    }
-
+    // Works out the spacing for the current counts and moves the cards only
+    // if it changed.
     private void checkSizing() {
-        if (cardCount < 2 || cardCount - hiddenCount < 2) {
-            spacing = getMaxSpacing();
-            hideHidden = false;
-            return;
-        }
-        int max = maxHeight;
-        int hidden = hiddenCount;
-        int showing = cardCount - hidden;
-        int spaceLeft = max - (hidden * HIDDEN_SPACING) - Card.HEIGHT;
-        int spacing = spaceLeft / (showing - 1);
-
-        if (spacing < SMALL_SPACING && hidden > 1) {
-            hideHidden = true;
-            spaceLeft = max - HIDDEN_SPACING - Card.HEIGHT;
+        int spacing = getMaxSpacing();
+        boolean hideHidden = false;
+        if (cardCount >= 2 && cardCount - hiddenCount >= 2) {
+            int hidden = hiddenCount;
+            int showing = cardCount - hidden;
+            int spaceLeft = maxHeight - (hidden * HIDDEN_SPACING) - Card.HEIGHT;
             spacing = spaceLeft / (showing - 1);
-        } else {
-            hideHidden = false;
-            if (spacing > getMaxSpacing()) {
+
+            if (spacing < SMALL_SPACING && hidden > 1) {
+                hideHidden = true;
+                spaceLeft = maxHeight - HIDDEN_SPACING - Card.HEIGHT;
+                spacing = spaceLeft / (showing - 1);
+            } else if (spacing > getMaxSpacing()) {
                 spacing = getMaxSpacing();
             }
         }
-        if (spacing != this.spacing) {
+        if (spacing != this.spacing || hideHidden != this.hideHidden) {
             this.spacing = spacing;
-            setPosition(locationX, locationY);
+            this.hideHidden = hideHidden;
+            layoutCards();
         }
     }
 
@@ -1277,6 +1394,6 @@ class GenericAnchor extends CardAnchor {
         if (cardCount == 0) {
             return locationY;
         }
-        return cards[cardCount - 1].getY() + spacing;
+        return layout.getY(cards[cardCount - 1]) + spacing;
     }
 }
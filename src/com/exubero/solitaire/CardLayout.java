@@ -0,0 +1,55 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+
+// Screen positions of the cards, kept apart from the cards themselves so that
+// a card is only its value and suit. Indexed by Card.getSerial(). The view's
+// DrawMaster owns the layout and hands it to the anchors, dragging and
+// animation, so a second set of Rules built elsewhere lays out its own cards
+// and never moves the ones on screen.
+class CardLayout {
+
+    private final float[] locationX;
+    private final float[] locationY;
+
+    public CardLayout() {
+        locationX = new float[52 * Card.MAX_COPIES];
+        locationY = new float[52 * Card.MAX_COPIES];
+        for (int i = 0; i < locationX.length; i++) {
+            locationX[i] = 1;
+            locationY[i] = 1;
+        }
+    }
+
+    public float getX(Card card) {
+        return locationX[card.getSerial()];
+    }
+
+    public float getY(Card card) {
+        return locationY[card.getSerial()];
+    }
+
+    public void setPosition(Card card, float x, float y) {
+        locationX[card.getSerial()] = x;
+        locationY[card.getSerial()] = y;
+    }
+
+    public void movePosition(Card card, float dx, float dy) {
+        locationX[card.getSerial()] -= dx;
+        locationY[card.getSerial()] -= dy;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+
+// A position copied off the anchors of a game: what each anchor is, how its
+// stack plays, and the cards on it, as card serials. It holds no anchors or
+// Card objects, so it can be worked on away from the UI thread - solved,
+// shuffled, or replaced with a generated deal - and dealt back onto the
+// anchors of a new game of the same kind later on. A deal read back from a
+// file only has the cards; the rest comes from the game it is dealt to.
+class Deal {
+
+    // No game has more anchors than this; a file that says so is damaged.
+    private static final int MAX_ANCHORS = 64;
+
+    private int[] types;
+    private RuleTable[] ruleTables;
+    private int[] pickups;
+    private int[] dropoffs;
+    private int redealCount;
+
+    private int[][] cards;
+    private int[] counts;
+    private int[] hidden;
+
+    public Deal(Rules rules) {
+        CardAnchor[] anchors = rules.getCardAnchors();
+        int count = anchors.length;
+        types = new int[count];
+        ruleTables = new RuleTable[count];
+        pickups = new int[count];
+        dropoffs = new int[count];
+        cards = new int[count][];
+        counts = new int[count];
+        hidden = new int[count];
+        redealCount = rules.getRedealCount();
+        for (int i = 0; i < count; i++) {
+            types[i] = anchors[i].getType();
+            ruleTables[i] = anchors[i].getRuleTable();
+            pickups[i] = anchors[i].getPickup();
+            dropoffs[i] = anchors[i].getDropoff();
+            counts[i] = anchors[i].getCount();
+            hidden[i] = anchors[i].getUnseenCount();
+            cards[i] = new int[counts[i]];
+            Card[] anchorCards = anchors[i].getCards();
+            for (int j = 0; j < counts[i]; j++) {
+                cards[i][j] = anchorCards[j].getSerial();
+            }
+        }
+    }
+
+    // A copy of deal, cards included.
+    public Deal(Deal deal) {
+        types = deal.types;
+        ruleTables = deal.ruleTables;
+        pickups = deal.pickups;
+        dropoffs = deal.dropoffs;
+        redealCount = deal.redealCount;
+        int count = deal.counts.length;
+        cards = new int[count][];
+        counts = new int[count];
+        hidden = new int[count];
+        for (int i = 0; i < count; i++) {
+            counts[i] = deal.counts[i];
+            hidden[i] = deal.hidden[i];
+            cards[i] = new int[counts[i]];
+            System.arraycopy(deal.cards[i], 0, cards[i], 0, counts[i]);
+        }
+    }
+
+    private Deal(int count) {
+        cards = new int[count][];
+        counts = new int[count];
+        hidden = new int[count];
+    }
+
+    public int getAnchorCount() {
+        return counts.length;
+    }
+
+    public int getType(int anchor) {
+        return types[anchor];
+    }
+
+    public RuleTable getRuleTable(int anchor) {
+        return ruleTables[anchor];
+    }
+
+    public int getPickup(int anchor) {
+        return pickups[anchor];
+    }
+
+    public int getDropoff(int anchor) {
+        return dropoffs[anchor];
+    }
+
+    // Redeals left when the deal was copied, as Rules.getRedealCount.
+    public int getRedealCount() {
+        return redealCount;
+    }
+
+    public int getCount(int anchor) {
+        return counts[anchor];
+    }
+
+    // Cards still unseen, from the bottom: the face down ones, or for the
+    // stock the ones never turned up.
+    public int getHiddenCount(int anchor) {
+        return hidden[anchor];
+    }
+
+    // Serial of the card at index on anchor; its identity is this mod 52.
+    public int getSerial(int anchor, int index) {
+        return cards[anchor][index];
+    }
+
+    // Replaces the cards on anchor with the first count of serials.
+    public void setCards(int anchor, int[] serials, int count, int hiddenCount) {
+        if (cards[anchor].length < count) {
+            cards[anchor] = new int[count];
+        }
+        System.arraycopy(serials, 0, cards[anchor], 0, count);
+        counts[anchor] = count;
+        hidden[anchor] = hiddenCount;
+    }
+
+    // Deals the same cards again at random into the same places. The cards
+    // are sorted first, so a seed always gives the same deal of a game.
+    public void shuffle(Random random) {
+        int total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+        }
+        int[] all = new int[total];
+        total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            System.arraycopy(cards[i], 0, all, total, counts[i]);
+            total += counts[i];
+        }
+        Arrays.sort(all);
+        for (int i = total - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = all[i];
+            all[i] = all[j];
+            all[j] = swap;
+        }
+        total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            System.arraycopy(all, total, cards[i], 0, counts[i]);
+            total += counts[i];
+        }
+    }
+
+    // Puts the cards onto the anchors of rules, which must be a game of the
+    // same kind. Returns false, touching nothing, if the layouts differ.
+    public boolean dealTo(Rules rules) {
+        CardAnchor[] anchors = rules.getCardAnchors();
+        if (anchors.length != counts.length) {
+            return false;
+        }
+        // No card twice, as a deal read from a file may have.
+        boolean[] seen = new boolean[52 * Card.MAX_COPIES];
+        int total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            for (int j = 0; j < counts[i]; j++) {
+                int serial = cards[i][j];
+                if (seen[serial]) {
+                    return false;
+                }
+                seen[serial] = true;
+            }
+            total += counts[i];
+        }
+        if (total != rules.getCardCount()) {
+            return false;
+        }
+        boolean ignore = rules.getIgnoreEvents();
+        rules.setIgnoreEvents(true);
+        for (int i = 0; i < anchors.length; i++) {
+            while (anchors[i].getCount() > 0) {
+                anchors[i].popCard();
+            }
+            for (int j = 0; j < counts[i]; j++) {
+                anchors[i].addCard(Card.get(cards[i][j]));
+            }
+            anchors[i].setUnseenCount(hidden[i]);
+        }
+        rules.setIgnoreEvents(ignore);
+        rules.syncState();
+        return true;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeShort(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            out.writeShort(counts[i]);
+            out.writeShort(hidden[i]);
+            for (int j = 0; j < counts[i]; j++) {
+                out.writeShort(cards[i][j]);
+            }
+        }
+    }
+
+    // Reads back the cards of a deal written with write. The file may be
+    // damaged, so every count is checked before it sizes an array.
+    public static Deal read(DataInputStream in) throws IOException {
+        int count = in.readShort();
+        if (count < 1 || count > MAX_ANCHORS) {
+            throw new IOException("Bad anchor count " + count);
+        }
+        Deal deal = new Deal(count);
+        for (int i = 0; i < count; i++) {
+            deal.counts[i] = in.readShort();
+            deal.hidden[i] = in.readShort();
+            if (deal.counts[i] < 0 || deal.counts[i] > 52 * Card.MAX_COPIES) {
+                throw new IOException("Bad card count " + deal.counts[i]);
+            }
+            if (deal.hidden[i] < 0 || deal.hidden[i] > deal.counts[i]) {
+                throw new IOException("Bad hidden count " + deal.hidden[i]);
+            }
+            deal.cards[i] = new int[deal.counts[i]];
+            for (int j = 0; j < deal.counts[i]; j++) {
+                int serial = in.readShort();
+                if (serial < 0 || serial >= 52 * Card.MAX_COPIES) {
+                    throw new IOException("Bad card " + serial);
+                }
+                deal.cards[i][j] = serial;
+            }
+        }
+        return deal;
+    }
+}
@@ -0,0 +1,681 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.util.Random;
+
+
+// Deals a game that is sure to be winnable by playing one backwards. It
+// starts with every card home and undoes moves at random: cards come down
+// off the foundations onto the stacks or the waste, runs go back to the
+// stack they were moved from, the waste goes back into the stock, and for
+// Spider completed runs come back out of the discard pile and the stock
+// takes back a card from each stack. Every step is the reverse of a legal
+// move, so playing the steps forwards again wins. It stops once the cards lie
+// the way the rules deal them: how many cards each anchor holds and how many
+// of them are face down is read from a deal of the game, and the result is
+// a new Deal of the same shape. Nothing here touches the anchors, so it can
+// run on any thread.
+//
+// Difficulty runs from 0 to 100. The higher it is, the more cards are
+// parked on the tableau on their way home and the more runs are shuffled
+// between stacks, so the win needs more building; at 0 every card goes home
+// straight from the stock or the stack it was dealt to. In Spider it is how
+// seldom a card is dealt onto the next card up of its own suit.
+class DealGenerator {
+
+    public static final int DIFFICULTY_EASY = 15;
+    public static final int DIFFICULTY_MEDIUM = 50;
+    public static final int DIFFICULTY_HARD = 85;
+
+    private static final int MAX_CARDS = 104;
+    private static final int MAX_ATTEMPTS = 50;
+
+    // Chance, in percent, of putting the waste back into the stock whenever
+    // it is deep enough.
+    private static final int UNDEAL_CHANCE = 40;
+
+    private static final int PILE_HOME = 0;
+    private static final int PILE_TABLEAU = 1;
+    private static final int PILE_CELL = 2;
+    private static final int PILE_STOCK = 3;
+    private static final int PILE_WASTE = 4;
+
+    private GameInfo game;
+    private Random random;
+    private int difficulty;
+    private int stockStyle;
+    private int dealCount;
+    private int cardCount;
+
+    private Deal shape;
+    private int[] kind;
+    private RuleTable[] ruleTables;
+    private int[] pickup;
+    private int[] dropoff;
+    private int[][] piles;
+    private int[] pileCount;
+    private int[] hidden;
+    private int[] dealtCount;
+    private int[] dealtHidden;
+
+    private int[] tableaux;
+    private int tableauCount;
+    private int cellCount;
+    private int sinkCount;
+    private int stock;
+    private int waste;
+    private int discard;
+    private boolean isFreshDeal;
+
+    // The serials of the cards by identity, so the same copies are dealt
+    // again, and how many copies of each there are.
+    private int[][] serialsByIdentity;
+    private int[] copies;
+    private int[] foundationCount;
+    private int[] runsLeft;
+
+    // The moves played backwards, in the GenericSolver encoding.
+    private int[] steps;
+    private int stepCount;
+
+    public DealGenerator(Rules rules, Random random, int difficulty) {
+        this(new GameInfo(rules), new Deal(rules), random, difficulty);
+    }
+
+    // Generates deals shaped like shape, a fresh deal of the game.
+    public DealGenerator(GameInfo game, Deal shape, Random random, int difficulty) {
+        this.game = game;
+        this.shape = shape;
+        this.random = random;
+        this.difficulty = Math.max(0, Math.min(100, difficulty));
+        stockStyle = game.getStockStyle();
+        dealCount = Math.max(1, game.getDealCount());
+        cardCount = game.getCardCount();
+
+        int count = shape.getAnchorCount();
+        kind = new int[count];
+        ruleTables = new RuleTable[count];
+        pickup = new int[count];
+        dropoff = new int[count];
+        piles = new int[count][MAX_CARDS];
+        pileCount = new int[count];
+        hidden = new int[count];
+        dealtCount = new int[count];
+        dealtHidden = new int[count];
+        tableaux = new int[count];
+        stock = -1;
+        waste = -1;
+        discard = -1;
+        isFreshDeal = true;
+
+        for (int i = 0; i < count; i++) {
+            switch (shape.getType(i)) {
+                case CardAnchor.SEQ_SINK:
+                    kind[i] = PILE_HOME;
+                    sinkCount++;
+                    break;
+                case CardAnchor.DEAL_FROM:
+                    kind[i] = PILE_STOCK;
+                    stock = i;
+                    break;
+                case CardAnchor.DEAL_TO:
+                    if (stockStyle == Rules.STOCK_TO_STACKS) {
+                        kind[i] = PILE_HOME;
+                        discard = i;
+                    } else {
+                        kind[i] = PILE_WASTE;
+                        waste = i;
+                    }
+                    break;
+                case CardAnchor.FREECELL_HOLD:
+                    kind[i] = PILE_CELL;
+                    cellCount++;
+                    break;
+                default:
+                    kind[i] = PILE_TABLEAU;
+                    ruleTables[i] = shape.getRuleTable(i);
+                    pickup[i] = shape.getPickup(i);
+                    dropoff[i] = shape.getDropoff(i);
+                    if (ruleTables[i] == null) {
+                        isFreshDeal = false;
+                    }
+                    tableaux[tableauCount++] = i;
+                    break;
+            }
+        }
+
+        copies = new int[52];
+        foundationCount = new int[52];
+        runsLeft = new int[4];
+        serialsByIdentity = new int[52][];
+        for (int i = 0; i < count; i++) {
+            dealtCount[i] = shape.getCount(i);
+            dealtHidden[i] = shape.getHiddenCount(i);
+            if (dealtCount[i] > 0 && (kind[i] == PILE_HOME || kind[i] == PILE_WASTE)) {
+                isFreshDeal = false;
+            }
+            for (int j = 0; j < dealtCount[i]; j++) {
+                int serial = shape.getSerial(i, j);
+                int card = serial % 52;
+                if (serialsByIdentity[card] == null) {
+                    serialsByIdentity[card] = new int[Card.MAX_COPIES];
+                }
+                serialsByIdentity[card][copies[card]++] = serial;
+            }
+        }
+        steps = new int[cardCount * 4];
+    }
+
+    // True for variants with a stock that this knows how to play backwards:
+    // dealt onto a waste with sinks to play to, or one card onto each stack
+    // with completed runs thrown out. Games with free cells, or where every
+    // card is dealt face up to the tableau, are left to the shuffled deck.
+    public boolean canGenerate() {
+        if (!isFreshDeal || cellCount > 0 || stock < 0 || tableauCount == 0) {
+            return false;
+        }
+        if (stockStyle == Rules.STOCK_TO_STACKS) {
+            return discard >= 0 && game.removesCompletedRuns();
+        }
+        return waste >= 0 && sinkCount > 0;
+    }
+
+    // A winnable deal, or null if none could be made.
+    public Deal generate() {
+        if (!canGenerate()) {
+            return null;
+        }
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            boolean dealt = stockStyle == Rules.STOCK_TO_STACKS ? playBackStacks() : playBackWaste();
+            if (dealt && isDealShape()) {
+                return toDeal();
+            }
+        }
+        return null;
+    }
+
+    // A way to win the last deal made, as GenericSolver moves.
+    public int[] getSolution() {
+        int[] solution = new int[stepCount];
+        for (int i = 0; i < stepCount; i++) {
+            solution[i] = steps[stepCount - 1 - i];
+        }
+        return solution;
+    }
+
+    private void reset() {
+        for (int i = 0; i < kind.length; i++) {
+            pileCount[i] = 0;
+            hidden[i] = 0;
+        }
+        for (int card = 0; card < 52; card++) {
+            foundationCount[card] = copies[card];
+        }
+        for (int suit = 0; suit < 4; suit++) {
+            runsLeft[suit] = copies[suit * 13 + Card.KING - 1];
+        }
+        stepCount = 0;
+    }
+
+    private boolean isDealShape() {
+        for (int i = 0; i < kind.length; i++) {
+            if (pileCount[i] != dealtCount[i] ||
+                    (kind[i] == PILE_TABLEAU && hidden[i] != dealtHidden[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Games dealt onto a waste. Each card comes down off the foundations
+    // onto a stack that still has room for its deal, onto the waste, or,
+    // now and then, onto a stack it builds on. Parked cards are later sent
+    // back to the waste or moved between stacks as runs, and the waste goes
+    // back into the stock as many cards at a time as are dealt. The stock is
+    // only ever gone through once.
+    private boolean playBackWaste() {
+        reset();
+        int baseLeft = 0;
+        for (int i = 0; i < tableauCount; i++) {
+            baseLeft += dealtCount[tableaux[i]];
+        }
+        int homeLeft = cardCount;
+        // The last deal takes whatever is left in the stock.
+        int chunk = dealtCount[stock] % dealCount == 0 ? dealCount : dealtCount[stock] % dealCount;
+        int[] tops = new int[52];
+
+        for (int step = 0; step < cardCount * 20; step++) {
+            if (homeLeft == 0) {
+                int pile = pickParked();
+                if (pile >= 0) {
+                    if (!unparkToWaste(pile)) {
+                        return false;
+                    }
+                } else if (pileCount[waste] == 0) {
+                    return true;
+                } else if (pileCount[waste] < chunk) {
+                    return false;
+                } else {
+                    undeal(chunk);
+                    chunk = dealCount;
+                }
+                continue;
+            }
+            if (pileCount[waste] >= chunk && random.nextInt(100) < UNDEAL_CHANCE) {
+                undeal(chunk);
+                chunk = dealCount;
+                continue;
+            }
+            if (random.nextInt(200) < difficulty && unplayParked()) {
+                continue;
+            }
+
+            // Filling the deal early leaves more stacks to park on, and
+            // parking picks a card that has somewhere to go.
+            boolean toBase = baseLeft > 0 && (random.nextInt(homeLeft) < baseLeft ||
+                    random.nextInt(200) < difficulty);
+            boolean toPark = !toBase && random.nextInt(100) < difficulty;
+            int topCount = getFoundationTops(tops, toPark);
+            if (topCount == 0) {
+                toPark = false;
+                topCount = getFoundationTops(tops, false);
+            }
+            int card = tops[random.nextInt(topCount)];
+            if (toBase) {
+                dealToBase(card, random.nextInt(baseLeft));
+                baseLeft--;
+            } else if (toPark) {
+                unfound(card, pickPark(card), false);
+            } else {
+                unfound(card, waste, false);
+            }
+            homeLeft--;
+        }
+        return false;
+    }
+
+    // Puts card on the stack holding the nth free place of the deal. The card
+    // under it is turned face down if the deal has it face down.
+    private void dealToBase(int card, int n) {
+        for (int i = 0; i < tableauCount; i++) {
+            int pile = tableaux[i];
+            int room = dealtCount[pile] - pileCount[pile];
+            if (room > 0 && n < room) {
+                int count = pileCount[pile];
+                boolean hide = count > 0 && count <= dealtHidden[pile];
+                if (hide) {
+                    hidden[pile] = count;
+                }
+                unfound(card, pile, hide);
+                return;
+            }
+            n -= Math.max(0, room);
+        }
+    }
+
+    // Fills tops with the cards on top of a foundation, only those that can
+    // be parked if parkable is set, and returns how many there are.
+    private int getFoundationTops(int[] tops, boolean parkable) {
+        int topCount = 0;
+        for (int card = 0; card < 52; card++) {
+            int above = card % 13 == Card.KING - 1 ? 0 : foundationCount[card + 1];
+            if (foundationCount[card] > above && (!parkable || pickPark(card) >= 0)) {
+                tops[topCount++] = card;
+            }
+        }
+        return topCount;
+    }
+
+    // A random stack, already dealt in full, that card builds on, or -1.
+    private int pickPark(int card) {
+        int pile = -1;
+        int found = 0;
+        for (int i = 0; i < tableauCount; i++) {
+            int to = tableaux[i];
+            int count = pileCount[to];
+            if (count >= dealtCount[to] && count > hidden[to] &&
+                    dropoff[to] != GenericAnchor.PACK_NONE &&
+                    ruleTables[to].canBuild(piles[to][count - 1], card) &&
+                    random.nextInt(++found) == 0) {
+                pile = to;
+            }
+        }
+        return pile;
+    }
+
+    // A random stack holding more than its deal, or -1.
+    private int pickParked() {
+        int pile = -1;
+        int found = 0;
+        for (int i = 0; i < tableauCount; i++) {
+            int from = tableaux[i];
+            if (pileCount[from] > dealtCount[from] && random.nextInt(++found) == 0) {
+                pile = from;
+            }
+        }
+        return pile;
+    }
+
+    // Undoes one move of a parked card or run: from the waste to its stack,
+    // or from one stack it builds on to another.
+    private boolean unplayParked() {
+        int from = pickParked();
+        if (from < 0) {
+            return false;
+        }
+        int count = pileCount[from];
+        int parked = count - dealtCount[from];
+        int n = 1 + random.nextInt(parked);
+        int to = tableaux[random.nextInt(tableauCount)];
+        if (to != from && canUnmove(from, to, n)) {
+            unmove(from, to, n, false);
+            return true;
+        }
+        return unparkToWaste(from);
+    }
+
+    // True if the top n cards of from could have been moved there from to, a
+    // stack dealt in full, and still build on to's top card afterwards.
+    private boolean canUnmove(int from, int to, int n) {
+        int count = pileCount[to];
+        if (count < dealtCount[to] || count == hidden[to] || count == 0 ||
+                dropoff[from] == GenericAnchor.PACK_NONE) {
+            return false;
+        }
+        int[] cards = piles[from];
+        int first = pileCount[from] - n;
+        if (first <= hidden[from] || !ruleTables[from].canBuild(cards[first - 1], cards[first]) ||
+                !ruleTables[to].canBuild(piles[to][count - 1], cards[first])) {
+            return false;
+        }
+        for (int i = first + 1; i < pileCount[from]; i++) {
+            if (!ruleTables[to].canMove(cards[i - 1], cards[i])) {
+                return false;
+            }
+        }
+        int emptyTableaux = 0;
+        for (int i = 0; i < tableauCount; i++) {
+            if (pileCount[tableaux[i]] == 0) {
+                emptyTableaux++;
+            }
+        }
+        return fitsPack(pickup[to], n, emptyTableaux) && fitsPack(dropoff[from], n, emptyTableaux);
+    }
+
+    private boolean fitsPack(int pack, int n, int emptyTableaux) {
+        switch (pack) {
+            case GenericAnchor.PACK_NONE:
+                return false;
+            case GenericAnchor.PACK_ONE:
+                return n == 1;
+            case GenericAnchor.PACK_LIMIT_BY_FREE:
+                return n <= game.getMoveLimit(0, emptyTableaux, false, false);
+        }
+        return true;
+    }
+
+    // Sends the top card of pile back to the waste, if it could have been
+    // played from there.
+    private boolean unparkToWaste(int pile) {
+        int count = pileCount[pile];
+        int card = piles[pile][count - 1];
+        if (dropoff[pile] == GenericAnchor.PACK_NONE || count - 1 <= hidden[pile] ||
+                !ruleTables[pile].canBuild(piles[pile][count - 2], card)) {
+            return false;
+        }
+        pileCount[pile]--;
+        piles[waste][pileCount[waste]++] = card;
+        record(GenericSolver.makeMove(GenericSolver.MOVE_PILE, waste, pile, 1));
+        return true;
+    }
+
+    // Takes chunk cards off the waste and puts them back in the stock.
+    private void undeal(int chunk) {
+        for (int i = 0; i < chunk; i++) {
+            piles[stock][pileCount[stock]++] = piles[waste][--pileCount[waste]];
+        }
+        record(GenericSolver.makeMove(GenericSolver.MOVE_DEAL, stock, waste, chunk));
+    }
+
+    // Spider style games. Completed runs come out of the discard pile one at
+    // a time onto a stack and are peeled apart again from the ace up, each
+    // card going back to a stack it could have been moved from. A card that
+    // lands on a stack whose one face up card the deal has face down turns
+    // that card over, which builds the deal up from the bottom. Other cards
+    // are left on top of a stack as its card for the next deal, and once
+    // every stack has one the stock takes them back. The king of each run
+    // stays where the run came out.
+    private boolean playBackStacks() {
+        reset();
+        int runs = 0;
+        for (int suit = 0; suit < 4; suit++) {
+            runs += runsLeft[suit];
+        }
+        int undealsLeft = (dealtCount[stock] + tableauCount - 1) / tableauCount;
+        // The last deal takes whatever is left in the stock.
+        int chunk = dealtCount[stock] - (undealsLeft - 1) * tableauCount;
+
+        while (runs > 0) {
+            int host = pickHost(undealsLeft > 0);
+            if (host < 0) {
+                return false;
+            }
+            unfoundRun(host);
+            runs--;
+            int king = pileCount[host] - 13;
+            while (pileCount[host] - 1 > king) {
+                // Each card either adds to the deal or waits to be dealt, in
+                // proportion to how many are still wanted each way.
+                int cardsLeft = runs * 13 + pileCount[host] - king;
+                boolean toDeal = undealsLeft == 0 || random.nextInt(cardsLeft) < getSlotsLeft();
+                int to = pickTarget(host, toDeal, undealsLeft > 0);
+                if (to < 0) {
+                    toDeal = !toDeal;
+                    to = pickTarget(host, toDeal, undealsLeft > 0);
+                }
+                if (to < 0) {
+                    return false;
+                }
+                unmove(host, to, 1, toDeal && canHide(to));
+                if (undealsLeft > 0 && canUndealStacks(chunk)) {
+                    undealStacks(chunk);
+                    undealsLeft--;
+                    chunk = tableauCount;
+                }
+            }
+        }
+        return undealsLeft == 0;
+    }
+
+    // A stack a completed run can come out onto: one whose top card gets
+    // turned over, an empty one, or one the king will do as the next card
+    // dealt to.
+    private int pickHost(boolean canUndeal) {
+        int pile = -1;
+        int found = 0;
+        for (int i = 0; i < tableauCount; i++) {
+            int to = tableaux[i];
+            if ((pileCount[to] == 0 || canHide(to) || (canUndeal && !hasSpare(to))) &&
+                    random.nextInt(++found) == 0) {
+                pile = to;
+            }
+        }
+        return pile;
+    }
+
+    // Deal places still to fill on the stacks, counting a face up card on
+    // its own as the top of a stack's deal.
+    private int getSlotsLeft() {
+        int slotsLeft = 0;
+        for (int i = 0; i < tableauCount; i++) {
+            int pile = tableaux[i];
+            int dealt = hidden[pile] + (pileCount[pile] > hidden[pile] ? 1 : 0);
+            slotsLeft += Math.max(0, dealtCount[pile] - dealt);
+        }
+        return slotsLeft;
+    }
+
+    // A stack other than host for card to go back to: one where it adds to
+    // the deal, or, with toDeal false, one where it waits to be dealt. Low
+    // difficulty prefers leaving it on the next card up of its own suit.
+    private int pickTarget(int host, boolean toDeal, boolean canUndeal) {
+        if (!toDeal && !canUndeal) {
+            return -1;
+        }
+        int card = piles[host][pileCount[host] - 1];
+        boolean preferSuit = random.nextInt(100) >= difficulty;
+        int pile = -1;
+        int found = 0;
+        int best = 0;
+        for (int i = 0; i < tableauCount; i++) {
+            int to = tableaux[i];
+            int count = pileCount[to];
+            if (to == host || (toDeal ? count > 0 && !canHide(to) : hasSpare(to))) {
+                continue;
+            }
+            int score = preferSuit && count > hidden[to] && !canHide(to) &&
+                    piles[to][count - 1] == card + 1 ? 1 : 0;
+            piles[to][count] = card;
+            if (completesRun(to, count + 1)) {
+                continue;
+            }
+            if (score > best) {
+                best = score;
+                found = 0;
+            }
+            if (score == best && random.nextInt(++found) == 0) {
+                pile = to;
+            }
+        }
+        return pile;
+    }
+
+    // True if pile has a top card the next deal could have put there.
+    private boolean hasSpare(int pile) {
+        int count = pileCount[pile];
+        return count == 1 || (count > 1 && count - hidden[pile] > 1);
+    }
+
+    // Brings a random completed run back out onto pile.
+    private void unfoundRun(int pile) {
+        int suit = random.nextInt(4);
+        while (runsLeft[suit] == 0) {
+            suit = (suit + 1) % 4;
+        }
+        runsLeft[suit]--;
+        boolean hide = canHide(pile);
+        if (hide) {
+            hidden[pile] = pileCount[pile];
+        }
+        for (int value = Card.KING - 1; value >= 0; value--) {
+            piles[pile][pileCount[pile]++] = suit * 13 + value;
+        }
+        int move = GenericSolver.makeMove(GenericSolver.MOVE_COMPLETE_RUN, pile, suit, 13);
+        record(hide ? move | GenericSolver.UNHIDE : move);
+    }
+
+    // True if the top card of pile is the only one face up and the deal has
+    // it face down.
+    private boolean canHide(int pile) {
+        int count = pileCount[pile];
+        return count > 0 && count - hidden[pile] == 1 && count <= dealtHidden[pile];
+    }
+
+    // True if the count cards at the bottom of pile end in a king to ace run
+    // of one suit, all face up.
+    private boolean completesRun(int pile, int count) {
+        if (count - hidden[pile] < 13) {
+            return false;
+        }
+        int suit = piles[pile][count - 1] / 13;
+        for (int i = 0; i < 13; i++) {
+            if (piles[pile][count - 1 - i] != suit * 13 + i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // True if the first n stacks each have a top card that could have been
+    // dealt there.
+    private boolean canUndealStacks(int n) {
+        for (int i = 0; i < n; i++) {
+            int pile = tableaux[i];
+            if (!hasSpare(pile) || completesRun(pile, pileCount[pile] - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Puts the top cards of the first n stacks back in the stock, the first
+    // stack's card on top as it is dealt first.
+    private void undealStacks(int n) {
+        for (int i = n - 1; i >= 0; i--) {
+            int pile = tableaux[i];
+            piles[stock][pileCount[stock]++] = piles[pile][--pileCount[pile]];
+        }
+        record(GenericSolver.makeMove(GenericSolver.MOVE_DEAL_STACKS, stock, 0, n));
+    }
+
+    // Takes card down off the foundations onto pile.
+    private void unfound(int card, int pile, boolean hide) {
+        foundationCount[card]--;
+        piles[pile][pileCount[pile]++] = card;
+        int move = GenericSolver.makeMove(GenericSolver.MOVE_FOUNDATION, pile, card, 1);
+        record(hide ? move | GenericSolver.UNHIDE : move);
+    }
+
+    // Moves the top n cards of from onto to, turning to's top card face down
+    // if hide is set.
+    private void unmove(int from, int to, int n, boolean hide) {
+        int first = pileCount[from] - n;
+        if (hide) {
+            hidden[to] = pileCount[to];
+        }
+        for (int i = 0; i < n; i++) {
+            piles[to][pileCount[to]++] = piles[from][first + i];
+        }
+        pileCount[from] = first;
+        int move = GenericSolver.makeMove(GenericSolver.MOVE_PILE, to, from, n);
+        record(hide ? move | GenericSolver.UNHIDE : move);
+    }
+
+    private void record(int move) {
+        if (stepCount == steps.length) {
+            int[] grown = new int[steps.length * 2];
+            System.arraycopy(steps, 0, grown, 0, stepCount);
+            steps = grown;
+        }
+        steps[stepCount++] = move;
+    }
+
+    // The cards as they lie now, face down where the deal had them.
+    private Deal toDeal() {
+        Deal deal = new Deal(shape);
+        int[] used = new int[52];
+        int[] serials = new int[MAX_CARDS];
+        for (int i = 0; i < kind.length; i++) {
+            for (int j = 0; j < pileCount[i]; j++) {
+                int card = piles[i][j];
+                serials[j] = serialsByIdentity[card][used[card]++];
+            }
+            deal.setCards(i, serials, pileCount[i], dealtHidden[i]);
+        }
+        return deal;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+
+
+// Winnable deals made ahead of time, so a new game can start at once however
+// long its deal takes to make. Each kind of game and difficulty has a short
+// queue, kept topped up by one low priority thread for the kinds that have
+// been asked for. Deals come from DealGenerator where it can play the game
+// backwards, and otherwise are shuffles that DealRater found winnable and
+// rated in the tier of the difficulty asked for. Plain shuffled deals are
+// quick enough to make when asked, so they are not queued.
+//
+// The queues are written out with the saved game and read back on the next
+// start, so the first game after a restart doesn't have to wait either.
+class DealQueue implements Runnable {
+
+    public static final int CAPACITY = 4;
+
+    private static final int VERSION = 2;
+
+    // A kind that fails this many times in a row is left alone until it is
+    // asked for again.
+    private static final int MAX_FAILURES = 30;
+
+    private HashMap<String, LinkedList<Deal>> queues;
+    private HashMap<String, DealSource> sources;
+    private DealSource lastSource;
+    private Thread thread;
+    private boolean isPaused;
+    private boolean isRead;
+
+    // There is one queue for the app, shared by every view, as its thread
+    // outlives them.
+    private static DealQueue instance;
+
+    public static synchronized DealQueue getInstance() {
+        if (instance == null) {
+            instance = new DealQueue();
+        }
+        return instance;
+    }
+
+    private DealQueue() {
+        queues = new HashMap<String, LinkedList<Deal>>();
+        sources = new HashMap<String, DealSource>();
+    }
+
+    // True the first time only, so the saved deals are read in once.
+    public synchronized boolean startRead() {
+        boolean first = !isRead;
+        isRead = true;
+        return first;
+    }
+
+    // Takes a queued deal for games like rules, a new game with its cards
+    // still as dealt, or returns null if none is ready. Either way the queue
+    // is topped up from then on, so call it from the UI thread before the
+    // game is dealt anything else.
+    public synchronized Deal take(Rules rules, int difficulty) {
+        String key = getKey(rules.getGameTypeString(), difficulty);
+        DealSource source = sources.get(key);
+        if (source == null) {
+            source = new DealSource(new GameInfo(rules), new Deal(rules), difficulty);
+            if (!source.canMake()) {
+                return null;
+            }
+            sources.put(key, source);
+        }
+        source.setFound(true);
+        lastSource = source;
+        LinkedList<Deal> queue = getQueue(key);
+        Deal deal = queue.isEmpty() ? null : queue.removeFirst();
+        if (thread == null) {
+            thread = new Thread(this, "DealQueue");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+        notifyAll();
+        return deal;
+    }
+
+    // Stops making deals while the game is in the background.
+    public synchronized void setPaused(boolean paused) {
+        isPaused = paused;
+        notifyAll();
+    }
+
+    public void run() {
+        Random random = new Random();
+        TranspositionTable table = new TranspositionTable(18);
+        while (true) {
+            DealSource source;
+            synchronized (this) {
+                while ((source = getHungrySource()) == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            Deal deal = source.make(random, table);
+            synchronized (this) {
+                source.setFound(deal != null);
+                if (deal != null) {
+                    LinkedList<Deal> queue = getQueue(source.getKey());
+                    if (queue.size() < CAPACITY) {
+                        queue.addLast(deal);
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        int count = 0;
+        for (LinkedList<Deal> queue : queues.values()) {
+            if (!queue.isEmpty()) {
+                count++;
+            }
+        }
+        out.writeInt(count);
+        Iterator<String> keys = queues.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            LinkedList<Deal> queue = queues.get(key);
+            if (queue.isEmpty()) {
+                continue;
+            }
+            out.writeUTF(key);
+            out.writeInt(queue.size());
+            for (Deal deal : queue) {
+                deal.write(out);
+            }
+        }
+    }
+
+    // Adds the deals written by write. Nothing is added unless the whole
+    // file reads back.
+    public synchronized void read(DataInputStream in) throws IOException {
+        if (in.readInt() != VERSION) {
+            throw new IOException("Invalid deal queue version");
+        }
+        HashMap<String, LinkedList<Deal>> read = new HashMap<String, LinkedList<Deal>>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            int size = in.readInt();
+            if (size < 0 || size > CAPACITY) {
+                throw new IOException("Bad deal queue size " + size);
+            }
+            LinkedList<Deal> queue = new LinkedList<Deal>();
+            for (int j = 0; j < size; j++) {
+                queue.addLast(Deal.read(in));
+            }
+            read.put(key, queue);
+        }
+        Iterator<String> keys = read.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            LinkedList<Deal> queue = getQueue(key);
+            for (Deal deal : read.get(key)) {
+                if (queue.size() < CAPACITY) {
+                    queue.addLast(deal);
+                }
+            }
+        }
+    }
+
+    static String getKey(String gameType, int difficulty) {
+        return gameType + "/" + difficulty;
+    }
+
+    private LinkedList<Deal> getQueue(String key) {
+        LinkedList<Deal> queue = queues.get(key);
+        if (queue == null) {
+            queue = new LinkedList<Deal>();
+            queues.put(key, queue);
+        }
+        return queue;
+    }
+
+    // The kind to make a deal for next, the one last asked for first, or null
+    // if there is nothing to do.
+    private DealSource getHungrySource() {
+        if (isPaused) {
+            return null;
+        }
+        if (lastSource != null && isHungry(lastSource)) {
+            return lastSource;
+        }
+        for (DealSource source : sources.values()) {
+            if (isHungry(source)) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    private boolean isHungry(DealSource source) {
+        return source.getFailures() < MAX_FAILURES && getQueue(source.getKey()).size() < CAPACITY;
+    }
+
+}
+
+
+// One kind of game to make deals for: what the solver needs to know about it
+// and a fresh deal of it to copy the layout from, both copied off the game
+// on the UI thread, so nothing here is shared with a game in play.
+class DealSource {
+
+    private static final int MAX_NODES = 200000;
+
+    private String key;
+    private GameInfo game;
+    private Deal shape;
+    private int difficulty;
+    private boolean canGenerate;
+    private int failures;
+
+    public DealSource(GameInfo game, Deal shape, int difficulty) {
+        this.game = game;
+        this.shape = shape;
+        this.difficulty = difficulty;
+        key = DealQueue.getKey(game.getGameTypeString(), difficulty);
+        canGenerate = new DealGenerator(game, shape, new Random(), difficulty).canGenerate();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    // Counts the tries in a row that found no deal.
+    public void setFound(boolean found) {
+        failures = found ? 0 : failures + 1;
+    }
+
+    public boolean canMake() {
+        return canGenerate || (game.isShuffledDeal() && GenericSolver.canSolve(game, shape));
+    }
+
+    // A winnable deal, or null if this try didn't find one.
+    public Deal make(Random random, TranspositionTable table) {
+        if (canGenerate) {
+            return new DealGenerator(game, shape, random, difficulty).generate();
+        }
+        Deal deal = new Deal(shape);
+        deal.shuffle(random);
+        DealRating rating = new DealRater(game, table, MAX_NODES).rate(deal);
+        if (rating == null || rating.getTier() != DealRater.getTier(difficulty)) {
+            return null;
+        }
+        return deal;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+
+// Rates how hard a deal is from how GenericSolver wins it: how many
+// positions the search took, how long the win is, how many times the stock
+// had to be gone through again, how few free cells it can be won with, and
+// how often there was a real choice of move. These are summed into a score,
+// and the score is turned into a rating from 0 to 100 by where it falls among
+// the scores of a batch of random deals of the same game, so a rating of 70
+// is harder than 70% of the deals that can be won.
+//
+// rate works on one deal within a node budget and can run on any thread.
+// rateSeeds rates a range of seeds on all the cores, for building the
+// calibration tables below or picking deals ahead of time.
+class DealRater {
+
+    public static final int TIER_EASY = 0;
+    public static final int TIER_MEDIUM = 1;
+    public static final int TIER_HARD = 2;
+
+    // Scores of the deciles of won random deals, from rateSeeds with 200000
+    // nodes and calibrate, over seeds 0 to 999 (0 to 499 for Forty Thieves,
+    // which is won far less often).
+    private static final HashMap<String, double[]> CALIBRATION = new HashMap<String, double[]>();
+
+    static {
+        CALIBRATION.put("Freecell", new double[] {
+                10.64, 14.73, 16.79, 18.35, 20.00, 21.53, 23.07, 24.65, 26.39, 28.90, 35.86});
+        CALIBRATION.put("SolitaireNormalDeal1", new double[] {
+                10.05, 13.25, 13.81, 14.34, 14.90, 15.76, 16.45, 17.62, 19.37, 22.15, 29.18});
+        CALIBRATION.put("SolitaireNormalDeal3", new double[] {
+                10.29, 14.92, 17.13, 18.70, 20.45, 22.14, 23.33, 24.57, 26.22, 28.43, 36.75});
+        CALIBRATION.put("Forty Thieves", new double[] {
+                10.19, 10.52, 11.48, 12.43, 13.65, 15.78, 16.57, 17.92, 19.16, 20.67, 22.50});
+    }
+
+    private GameInfo game;
+    private TranspositionTable table;
+    private int maxNodes;
+    private double[] deciles;
+
+    public DealRater(GameInfo game, TranspositionTable table, int maxNodes) {
+        this.game = game;
+        this.table = table;
+        this.maxNodes = maxNodes;
+        deciles = CALIBRATION.get(game.getGameTypeString());
+    }
+
+    // Uses the given deciles, as calibrate makes them, in place of the table.
+    public void setCalibration(double[] deciles) {
+        this.deciles = deciles;
+    }
+
+    // Rates deal, or returns null if it wasn't won within the node budget.
+    // The budget covers all the solves, so with little left over the fewest
+    // cells needed is only an upper bound.
+    public DealRating rate(Deal deal) {
+        table.clear();
+        GenericSolver solver = new GenericSolver(game, deal, table);
+        solver.setMaxNodes(maxNodes);
+        if (solver.solve() != Solver.RESULT_SOLVED) {
+            return null;
+        }
+        int nodes = solver.getNodeCount();
+        int[] solution = solver.getSolution();
+        int redeals = 0;
+        for (int i = 0; i < solution.length; i++) {
+            if (GenericSolver.getKind(solution[i]) == GenericSolver.MOVE_REDEAL) {
+                redeals++;
+            }
+        }
+
+        int cells = solver.getCellCount();
+        int used = nodes;
+        while (cells > 0 && used < maxNodes) {
+            table.clear();
+            GenericSolver fewer = new GenericSolver(game, deal, table);
+            fewer.setCellLimit(cells - 1);
+            fewer.setMaxNodes(maxNodes - used);
+            int result = fewer.solve();
+            used += fewer.getNodeCount();
+            if (result != Solver.RESULT_SOLVED) {
+                break;
+            }
+            cells--;
+        }
+
+        double score = getScore(nodes, solution.length, redeals, cells,
+                solver.getForcedShare());
+        return new DealRating(nodes, solution.length, redeals, cells, solver.getBranching(),
+                solver.getForcedShare(), score, getRating(score));
+    }
+
+    // Rough weights: every doubling of the search or of the moves per card
+    // counts one, the rest are scaled to matter about as much over their
+    // usual range. Depth first wins wander, so length counts for little.
+    private double getScore(int nodes, int length, int redeals, int cells, double forcedShare) {
+        return log2(1 + nodes) +
+                log2(1 + (double) length / game.getCardCount()) +
+                1.5 * redeals +
+                1.5 * cells +
+                2.0 * (1 - forcedShare);
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    // Where score falls among the calibration deciles, 0 to 100. Games with
+    // no calibration get a rough fixed scale.
+    private int getRating(double score) {
+        if (deciles == null) {
+            return (int) Math.max(0, Math.min(100, (score - 5) * 5));
+        }
+        if (score <= deciles[0]) {
+            return 0;
+        }
+        for (int i = 1; i < deciles.length; i++) {
+            if (score < deciles[i]) {
+                double part = (score - deciles[i - 1]) / (deciles[i] - deciles[i - 1]);
+                return (int) (10 * (i - 1 + part));
+            }
+        }
+        return 100;
+    }
+
+    public static int getTier(int rating) {
+        if (rating < 33) {
+            return TIER_EASY;
+        }
+        return rating < 67 ? TIER_MEDIUM : TIER_HARD;
+    }
+
+    // Rates the deals made by shuffling a copy of shape with seeds firstSeed
+    // up, spread over threadCount threads. Deals not won within maxNodes are
+    // left null. Only for games where game.isShuffledDeal.
+    public static DealRating[] rateSeeds(final GameInfo game, final Deal shape, final long firstSeed,
+                                         int count, int threadCount, final int maxNodes) {
+        final DealRating[] ratings = new DealRating[count];
+        final int[] next = new int[1];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    DealRater rater = new DealRater(game, new TranspositionTable(20), maxNodes);
+                    while (true) {
+                        int index;
+                        synchronized (next) {
+                            index = next[0]++;
+                        }
+                        if (index >= ratings.length) {
+                            return;
+                        }
+                        Deal deal = new Deal(shape);
+                        deal.shuffle(new Random(firstSeed + index));
+                        DealRating rating = rater.rate(deal);
+                        if (rating != null) {
+                            rating.setSeed(firstSeed + index);
+                        }
+                        ratings[index] = rating;
+                    }
+                }
+            }, "DealRater-" + i);
+            threads[i].setPriority(Thread.MIN_PRIORITY);
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return ratings;
+    }
+
+    public static DealRating[] rateSeeds(GameInfo game, Deal shape, long firstSeed, int count,
+                                         int maxNodes) {
+        return rateSeeds(game, shape, firstSeed, count,
+                Runtime.getRuntime().availableProcessors(), maxNodes);
+    }
+
+    // The deciles of the scores of the rated deals, for setCalibration or
+    // the table above.
+    public static double[] calibrate(DealRating[] ratings) {
+        int count = 0;
+        for (int i = 0; i < ratings.length; i++) {
+            if (ratings[i] != null) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        double[] scores = new double[count];
+        count = 0;
+        for (int i = 0; i < ratings.length; i++) {
+            if (ratings[i] != null) {
+                scores[count++] = ratings[i].getScore();
+            }
+        }
+        Arrays.sort(scores);
+        double[] deciles = new double[11];
+        for (int i = 0; i <= 10; i++) {
+            deciles[i] = scores[Math.min(count - 1, i * count / 10)];
+        }
+        return deciles;
+    }
+}
+
+
+// The numbers behind a DealRater rating.
+class DealRating {
+    private long seed;
+    private int nodes;
+    private int length;
+    private int redeals;
+    private int cells;
+    private double branching;
+    private double forcedShare;
+    private double score;
+    private int rating;
+
+    public DealRating(int nodes, int length, int redeals, int cells, double branching,
+                      double forcedShare, double score, int rating) {
+        this.nodes = nodes;
+        this.length = length;
+        this.redeals = redeals;
+        this.cells = cells;
+        this.branching = branching;
+        this.forcedShare = forcedShare;
+        this.score = score;
+        this.rating = rating;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // Positions the winning search went through.
+    public int getNodes() {
+        return nodes;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    // Times the waste was turned back into the stock on the way to the win.
+    public int getRedeals() {
+        return redeals;
+    }
+
+    // Fewest free cells the deal was won with.
+    public int getCells() {
+        return cells;
+    }
+
+    public double getBranching() {
+        return branching;
+    }
+
+    public double getForcedShare() {
+        return forcedShare;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public int getRating() {
+        return rating;
+    }
+
+    public int getTier() {
+        return DealRater.getTier(rating);
+    }
+}
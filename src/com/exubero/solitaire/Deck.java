@@ -42,7 +42,7 @@ public class Deck {
         for (int deck = 0; deck < deckCount; deck++) {
             for (int suit = Card.CLUBS; suit < suitCount; suit++) {
                 for (int value = 0; value < 13; value++) {
-                    cards[deck * suitCount * 13 + suit * Card.KING + value] = new Card(value + 1, suit);
+                    cards[deck * suitCount * 13 + suit * Card.KING + value] = Card.get(value + 1, suit, deck);
                 }
             }
         }
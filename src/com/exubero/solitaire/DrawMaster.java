@@ -20,6 +20,7 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
@@ -27,8 +28,12 @@ import android.graphics.drawable.Drawable;
 
 public class DrawMaster {
 
+    // How far the rounded corners of a card let the card under it show through.
+    private static final int CORNER_SIZE = 4;
+
     // Card stuff
     private final Paint suitPaint = new Paint();
+    private final CardLayout cardLayout = new CardLayout();
     private Context context;
 
     // Background
@@ -37,6 +42,11 @@ public class DrawMaster {
     private Paint bgPaint;
     private Bitmap[] cardBitmaps;
     private Bitmap cardHidden;
+    // What the card bitmaps were last drawn for, so they are only redrawn
+    // when the card size or style changes.
+    private int cardsWidth;
+    private int cardsHeight;
+    private boolean cardsBig;
 
     private Paint emptyAnchorPaint;
     private Paint doneEmptyAnchorPaint;
@@ -45,7 +55,14 @@ public class DrawMaster {
 
     private Paint timePaint;
     private int lastSeconds;
-    private String timeString;
+    private HudText timeText;
+    private String lastRulesString;
+    private HudText rulesText;
+    private HudText timingsText;
+    private Paint timingsPaint;
+    private RectF anchorRect;
+    private Rect stripSource;
+    private RectF stripDest;
 
     private Bitmap boardBitmap;
     private Canvas boardCanvas;
@@ -79,6 +96,16 @@ public class DrawMaster {
         timePaint.setTextAlign(Paint.Align.RIGHT);
         timePaint.setAntiAlias(true);
         lastSeconds = -1;
+        timeText = new HudText();
+        rulesText = new HudText();
+        timingsText = new HudText(64);
+        timingsPaint = new Paint();
+        timingsPaint.setTextSize(10);
+        timingsPaint.setARGB(255, 255, 255, 0);
+        timingsPaint.setAntiAlias(true);
+        anchorRect = new RectF();
+        stripSource = new Rect();
+        stripDest = new RectF();
 
         cardBitmaps = new Bitmap[52];
         drawCards(false);
@@ -86,6 +113,10 @@ public class DrawMaster {
         boardCanvas = new Canvas(boardBitmap);
     }
 
+    public CardLayout getCardLayout() {
+        return cardLayout;
+    }
+
     public int getWidth() {
         return screenWidth;
     }
@@ -99,24 +130,56 @@ public class DrawMaster {
     }
 
     public void drawCard(Canvas canvas, Card card) {
-        float x = card.getX();
-        float y = card.getY();
+        float x = cardLayout.getX(card);
+        float y = cardLayout.getY(card);
         int idx = card.getSuit() * 13 + (card.getValue() - 1);
         canvas.drawBitmap(cardBitmaps[idx], x, y, suitPaint);
     }
 
     public void drawHiddenCard(Canvas canvas, Card card) {
-        float x = card.getX();
-        float y = card.getY();
+        float x = cardLayout.getX(card);
+        float y = cardLayout.getY(card);
         canvas.drawBitmap(cardHidden, x, y, suitPaint);
     }
 
+    // Draws card in a stack where cover lies on top of it, lower down. Only
+    // the strip of card that is left showing gets drawn. cover may be null
+    // for the top card, which is drawn whole.
+    public void drawCard(Canvas canvas, Card card, Card cover) {
+        int idx = card.getSuit() * 13 + (card.getValue() - 1);
+        drawCovered(canvas, cardBitmaps[idx], card, cover);
+    }
+
+    public void drawHiddenCard(Canvas canvas, Card card, Card cover) {
+        drawCovered(canvas, cardHidden, card, cover);
+    }
+
+    private void drawCovered(Canvas canvas, Bitmap bitmap, Card card, Card cover) {
+        float x = cardLayout.getX(card);
+        float y = cardLayout.getY(card);
+        if (cover == null || cardLayout.getX(cover) != x || cardLayout.getY(cover) < y) {
+            canvas.drawBitmap(bitmap, x, y, suitPaint);
+            return;
+        }
+        if (cardLayout.getY(cover) == y) {
+            return;
+        }
+        int height = (int) (cardLayout.getY(cover) - y) + CORNER_SIZE;
+        if (height >= Card.HEIGHT) {
+            canvas.drawBitmap(bitmap, x, y, suitPaint);
+            return;
+        }
+        stripSource.set(0, 0, Card.WIDTH, height);
+        stripDest.set(x, y, x + Card.WIDTH, y + height);
+        canvas.drawBitmap(bitmap, stripSource, stripDest, suitPaint);
+    }
+
     public void drawEmptyAnchor(Canvas canvas, float x, float y, boolean done) {
-        RectF pos = new RectF(x, y, x + Card.WIDTH, y + Card.HEIGHT);
+        anchorRect.set(x, y, x + Card.WIDTH, y + Card.HEIGHT);
         if (!done) {
-            canvas.drawRoundRect(pos, 4, 4, emptyAnchorPaint);
+            canvas.drawRoundRect(anchorRect, 4, 4, emptyAnchorPaint);
         } else {
-            canvas.drawRoundRect(pos, 4, 4, doneEmptyAnchorPaint);
+            canvas.drawRoundRect(anchorRect, 4, 4, doneEmptyAnchorPaint);
         }
     }
 
@@ -137,6 +200,9 @@ public class DrawMaster {
     }
 
     public void setScreenSize(int width, int height) {
+        if (width == screenWidth && height == screenHeight && boardBitmap != null) {
+            return;
+        }
         screenWidth = width;
         screenHeight = height;
         boardBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
@@ -144,11 +210,20 @@ public class DrawMaster {
     }
 
     public void drawCards(boolean bigCards) {
+        if (cardHidden != null && bigCards == cardsBig &&
+                Card.WIDTH == cardsWidth && Card.HEIGHT == cardsHeight) {
+            return;
+        }
+        long start = Timings.start();
+        cardsWidth = Card.WIDTH;
+        cardsHeight = Card.HEIGHT;
+        cardsBig = bigCards;
         if (bigCards) {
             drawBigCards(context.getResources());
         } else {
             drawCards(context.getResources());
         }
+        Timings.record(Timings.DRAW_CARDS, start);
     }
 
     private void drawBigCards(Resources r) {
@@ -539,32 +614,143 @@ public class DrawMaster {
     }
 
     public void drawTime(Canvas canvas, int millis) {
-        int seconds = (millis / 1000) % 60;
-        int minutes = millis / 60000;
-        if (seconds != lastSeconds) {
-            lastSeconds = seconds;
-            // String.format is insanely slow (~15ms)
+        int totalSeconds = millis / 1000;
+        if (totalSeconds != lastSeconds) {
+            lastSeconds = totalSeconds;
+            // String.format is insanely slow (~15ms), so build the text by hand.
+            int seconds = totalSeconds % 60;
+            timeText.clear();
+            timeText.append(totalSeconds / 60);
+            timeText.append(':');
             if (seconds < 10) {
-                timeString = minutes + ":0" + seconds;
-            } else {
-                timeString = minutes + ":" + seconds;
+                timeText.append('0');
             }
+            timeText.append(seconds);
+            timeText.render(timePaint, 0, 0, 0);
+        }
+        timeText.draw(canvas, screenWidth - 10, screenHeight - 10, suitPaint);
+    }
+
+    // Debug overlay with the count, median, 95th percentile and worst time of
+    // each timed operation, in milliseconds.
+    public void drawTimings(Canvas canvas) {
+        for (int op = 0; op < Timings.COUNT; op++) {
+            timingsText.clear();
+            timingsText.append(Timings.getName(op));
+            timingsText.append(' ');
+            timingsText.append(Timings.getCount(op));
+            timingsText.append(" p50<");
+            appendMillis(timingsText, Timings.getPercentileMicros(op, 50));
+            timingsText.append(" p95<");
+            appendMillis(timingsText, Timings.getPercentileMicros(op, 95));
+            timingsText.append(" max ");
+            appendMillis(timingsText, Timings.getMaxMicros(op));
+            timingsText.drawText(canvas, 4, 12 + op * 12, timingsPaint);
         }
-        timePaint.setARGB(255, 20, 20, 20);
-        canvas.drawText(timeString, screenWidth - 9, screenHeight - 9, timePaint);
-        timePaint.setARGB(255, 0, 0, 0);
-        canvas.drawText(timeString, screenWidth - 10, screenHeight - 10, timePaint);
+    }
+
+    private static void appendMillis(HudText text, long micros) {
+        text.append((int) (micros / 1000));
+        text.append('.');
+        text.append((int) (micros / 100 % 10));
     }
 
     public void drawRulesString(Canvas canvas, String score) {
-        timePaint.setARGB(255, 20, 20, 20);
-        canvas.drawText(score, screenWidth - 9, screenHeight - 29, timePaint);
-        if (score.charAt(0) == '-') {
-            timePaint.setARGB(255, 255, 0, 0);
+        if (!score.equals(lastRulesString)) {
+            lastRulesString = score;
+            rulesText.clear();
+            rulesText.append(score);
+            if (score.length() > 0 && score.charAt(0) == '-') {
+                rulesText.render(timePaint, 255, 0, 0);
+            } else {
+                rulesText.render(timePaint, 0, 0, 0);
+            }
+        }
+        rulesText.draw(canvas, screenWidth - 10, screenHeight - 30, suitPaint);
+    }
+}
+
+// A line of text drawn in the corner of the screen. The text is built in a
+// reused buffer and drawn into a bitmap, with its shadow, only when it
+// changes. Every other frame is a single bitmap draw that allocates nothing.
+class HudText {
+    private char[] text;
+    private int length;
+    private Bitmap bitmap;
+    private Canvas canvas;
+    private int baseline;
+
+    public HudText() {
+        this(32);
+    }
+
+    public HudText(int capacity) {
+        text = new char[capacity];
+        length = 0;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    public void append(char c) {
+        if (length < text.length) {
+            text[length++] = c;
+        }
+    }
+
+    public void append(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            append(s.charAt(i));
+        }
+    }
+
+    public void append(int value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int start = length;
+        do {
+            append((char) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = text[i];
+            text[i] = text[j];
+            text[j] = c;
+        }
+    }
+
+    // Draws the text right aligned into the bitmap, which is only replaced
+    // when the text no longer fits.
+    public void render(Paint paint, int red, int green, int blue) {
+        int width = (int) paint.measureText(text, 0, length) + 3;
+        int height = (int) (paint.descent() - paint.ascent()) + 3;
+        if (bitmap == null || bitmap.getWidth() < width || bitmap.getHeight() < height) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
         } else {
-            timePaint.setARGB(255, 0, 0, 0);
+            bitmap.eraseColor(0);
         }
-        canvas.drawText(score, screenWidth - 10, screenHeight - 30, timePaint);
+        baseline = (int) -paint.ascent() + 1;
+        int right = bitmap.getWidth() - 2;
+        paint.setARGB(255, 20, 20, 20);
+        canvas.drawText(text, 0, length, right + 1, baseline + 1, paint);
+        paint.setARGB(255, red, green, blue);
+        canvas.drawText(text, 0, length, right, baseline, paint);
+    }
 
+    // Draws the text as it is now straight onto canvas, left aligned at x.
+    // For text that changes every frame, where caching a bitmap won't help.
+    public void drawText(Canvas canvas, float x, float y, Paint paint) {
+        canvas.drawText(text, 0, length, x, y, paint);
+    }
+
+    // Draws the text with its right edge at x and its baseline at y.
+    public void draw(Canvas canvas, float x, float y, Paint paint) {
+        if (bitmap != null) {
+            canvas.drawBitmap(bitmap, x - bitmap.getWidth() + 2, y - baseline, paint);
+        }
     }
 }
@@ -0,0 +1,97 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+
+// What the solvers and the deal generator need to know about a kind of game,
+// copied off its Rules on the UI thread. It keeps nothing of the game in
+// play, so it can be held onto and read from any thread while the game it
+// came from goes on or is thrown away.
+class GameInfo {
+
+    private String gameTypeString;
+    private int cardCount;
+    private int stockStyle;
+    private int dealCount;
+    private boolean removesCompletedRuns;
+    private boolean isShuffledDeal;
+    private boolean isWonOnFoundations;
+
+    // Rules.getMoveLimit for every count of free cells and empty stacks up to
+    // the number of anchors, four entries a pair for the two flags.
+    private int limitSize;
+    private int[] moveLimits;
+
+    public GameInfo(Rules rules) {
+        gameTypeString = rules.getGameTypeString();
+        cardCount = rules.getCardCount();
+        stockStyle = rules.getStockStyle();
+        dealCount = rules.getDealCount();
+        removesCompletedRuns = rules.removesCompletedRuns();
+        isShuffledDeal = rules.isShuffledDeal();
+        isWonOnFoundations = rules.isWonOnFoundations();
+
+        limitSize = rules.getCardAnchors().length + 1;
+        moveLimits = new int[limitSize * limitSize * 4];
+        for (int cells = 0; cells < limitSize; cells++) {
+            for (int stacks = 0; stacks < limitSize; stacks++) {
+                for (int flags = 0; flags < 4; flags++) {
+                    moveLimits[getLimitIndex(cells, stacks, flags)] = rules.getMoveLimit(cells, stacks,
+                            (flags & 1) != 0, (flags & 2) != 0);
+                }
+            }
+        }
+    }
+
+    public String getGameTypeString() {
+        return gameTypeString;
+    }
+
+    public int getCardCount() {
+        return cardCount;
+    }
+
+    public int getStockStyle() {
+        return stockStyle;
+    }
+
+    public int getDealCount() {
+        return dealCount;
+    }
+
+    public boolean removesCompletedRuns() {
+        return removesCompletedRuns;
+    }
+
+    public boolean isShuffledDeal() {
+        return isShuffledDeal;
+    }
+
+    public boolean isWonOnFoundations() {
+        return isWonOnFoundations;
+    }
+
+    // As Rules.getMoveLimit with counts.
+    public int getMoveLimit(int freeCells, int emptyStacks, boolean fromEmptied, boolean toEmpty) {
+        int cells = Math.max(0, Math.min(limitSize - 1, freeCells));
+        int stacks = Math.max(0, Math.min(limitSize - 1, emptyStacks));
+        return moveLimits[getLimitIndex(cells, stacks, (fromEmptied ? 1 : 0) | (toEmpty ? 2 : 0))];
+    }
+
+    private int getLimitIndex(int cells, int stacks, int flags) {
+        return (cells * limitSize + stacks) * 4 + flags;
+    }
+}
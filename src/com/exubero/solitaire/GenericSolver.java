@@ -0,0 +1,868 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.util.Random;
+
+
+// Solver for any variant, read from the anchors of its rules rather than
+// written for it. Stacks build by their RuleTable and are picked up from and
+// dropped on by their pack policies, free cells hold one card, sinks take a
+// suit up from the ace, and the stock is dealt the way the rules say: onto
+// the waste, with or without redeals, or one card onto each stack.
+//
+// Cards are stored as their identity (0 to 51). The foundations are kept as
+// how many copies of each card are up, which is all that decides what may go
+// up next, and anchors with the same rules hash the same wherever they are,
+// so positions that only differ by which copy or which stack is where are
+// searched once. Face down cards are played as if they were known.
+class GenericSolver extends Solver {
+
+    private static final int MAX_CARDS = 104;
+
+    // What each anchor is to the solver. Foundations and the discard pile of
+    // completed runs aren't played from, so only their counts are kept.
+    private static final int PILE_HOME = 0;
+    private static final int PILE_TABLEAU = 1;
+    private static final int PILE_CELL = 2;
+    private static final int PILE_STOCK = 3;
+    private static final int PILE_WASTE = 4;
+
+    // Moves are packed into an int: kind, source anchor, target anchor and
+    // count, plus a flag set when the move turns a face down card over. For
+    // foundation moves the target is the card that goes up, for completed
+    // runs it is the suit.
+    public static final int MOVE_DEAL = 1;
+    public static final int MOVE_REDEAL = 2;
+    public static final int MOVE_DEAL_STACKS = 3;
+    public static final int MOVE_FOUNDATION = 4;
+    public static final int MOVE_PILE = 5;
+    public static final int MOVE_COMPLETE_RUN = 6;
+    static final int UNHIDE = 1 << 28;
+
+    private static final long[] PILE_KEYS = new long[MAX_CARDS * 52];
+    private static final long[] HIDDEN_KEYS = new long[MAX_CARDS + 1];
+    private static final long[] GROUP_KEYS = new long[64];
+    private static final long[] REDEAL_KEYS = new long[16];
+
+    static {
+        Random random = new Random(0x47);
+        fill(PILE_KEYS, random);
+        fill(HIDDEN_KEYS, random);
+        fill(GROUP_KEYS, random);
+        fill(REDEAL_KEYS, random);
+    }
+
+    private GameInfo game;
+    private int stockStyle;
+    private int dealCount;
+    private boolean removesRuns;
+    private boolean canSolve;
+    private int cardCount;
+
+    // Per anchor. Anchors that play alike share a group, the lowest number
+    // among them.
+    private int[] kind;
+    private RuleTable[] ruleTables;
+    private int[] pickup;
+    private int[] dropoff;
+    private int[] group;
+    private byte[][] piles;
+    private int[] pileCount;
+    private int[] hidden;
+    private long[] pileHash;
+
+    private int[] tableaux;
+    private int tableauCount;
+    private int[] cells;
+    private int cellCount;
+    private int stock;
+    private int waste;
+    private int emptyTableaux;
+    private int emptyCells;
+    private int redealsLeft;
+
+    // foundationCount[card] is how many copies of card are up, copies[card]
+    // how many there are. safeMask[card] holds the cards that could be built
+    // on card anywhere, so once all of those are up card can go up safely.
+    private int[] foundationCount;
+    private int[] copies;
+    private long[] safeMask;
+    private int sinkCount;
+    private int acesUp;
+    private int homeCount;
+
+    // Where the face down cards are, stock included, so they can be dealt
+    // again in a different order.
+    private int[] unseenPile;
+    private int[] unseenIndex;
+    private int unseenCount;
+
+    // Search stack: the moves generated at each depth sit in moves between
+    // moveStart and moveEnd, moveNext is the next one to try and path holds
+    // the one being played.
+    private int[] moves;
+    private int[] scores;
+    private int[] moveStart;
+    private int[] moveNext;
+    private int[] moveEnd;
+    private int[] path;
+
+    // How the last search branched: positions whose moves were listed, the
+    // moves listed, and the positions with a single move.
+    private int expandedCount;
+    private long branchTotal;
+    private int forcedCount;
+
+    public GenericSolver(Rules rules, TranspositionTable table) {
+        this(new GameInfo(rules), new Deal(rules), table);
+    }
+
+    // Solves deal, a position of a game, with nothing of the game in play,
+    // so it can run on any thread.
+    public GenericSolver(GameInfo game, Deal deal, TranspositionTable table) {
+        super(table);
+        this.game = game;
+        stockStyle = game.getStockStyle();
+        dealCount = game.getDealCount();
+        removesRuns = game.removesCompletedRuns();
+        redealsLeft = deal.getRedealCount();
+        cardCount = game.getCardCount();
+
+        int count = deal.getAnchorCount();
+        kind = new int[count];
+        ruleTables = new RuleTable[count];
+        pickup = new int[count];
+        dropoff = new int[count];
+        group = new int[count];
+        piles = new byte[count][];
+        pileCount = new int[count];
+        hidden = new int[count];
+        pileHash = new long[count];
+        tableaux = new int[count];
+        cells = new int[count];
+        foundationCount = new int[52];
+        copies = new int[52];
+        safeMask = new long[52];
+        stock = -1;
+        waste = -1;
+        moves = new int[4096];
+        scores = new int[4096];
+        moveStart = new int[256];
+        moveNext = new int[256];
+        moveEnd = new int[256];
+        path = new int[256];
+
+        for (int i = 0; i < count; i++) {
+            switch (deal.getType(i)) {
+                case CardAnchor.SEQ_SINK:
+                    kind[i] = PILE_HOME;
+                    sinkCount++;
+                    break;
+                case CardAnchor.DEAL_FROM:
+                    kind[i] = PILE_STOCK;
+                    stock = i;
+                    break;
+                case CardAnchor.DEAL_TO:
+                    if (stockStyle == Rules.STOCK_TO_STACKS) {
+                        kind[i] = PILE_HOME;
+                    } else {
+                        kind[i] = PILE_WASTE;
+                        waste = i;
+                    }
+                    break;
+                case CardAnchor.FREECELL_HOLD:
+                    kind[i] = PILE_CELL;
+                    cells[cellCount++] = i;
+                    break;
+                default:
+                    kind[i] = PILE_TABLEAU;
+                    ruleTables[i] = deal.getRuleTable(i);
+                    pickup[i] = deal.getPickup(i);
+                    dropoff[i] = deal.getDropoff(i);
+                    tableaux[tableauCount++] = i;
+                    break;
+            }
+            group[i] = i;
+            for (int j = 0; j < i; j++) {
+                if (kind[j] == kind[i] && ruleTables[j] == ruleTables[i] &&
+                        pickup[j] == pickup[i] && dropoff[j] == dropoff[i]) {
+                    group[i] = group[j];
+                    break;
+                }
+            }
+            if (kind[i] == PILE_STOCK || kind[i] == PILE_WASTE) {
+                group[i] = i;
+            }
+        }
+
+        emptyTableaux = tableauCount;
+        emptyCells = cellCount;
+        for (int i = 0; i < count; i++) {
+            int cardsHere = deal.getCount(i);
+            if (kind[i] != PILE_HOME) {
+                piles[i] = new byte[MAX_CARDS];
+            }
+            for (int j = 0; j < cardsHere; j++) {
+                int card = deal.getSerial(i, j) % 52;
+                copies[card]++;
+                if (kind[i] == PILE_HOME) {
+                    if (deal.getType(i) == CardAnchor.SEQ_SINK) {
+                        addFoundation(card);
+                    } else {
+                        homeCount++;
+                    }
+                } else {
+                    pushPile(i, card);
+                }
+            }
+            hidden[i] = kind[i] == PILE_STOCK ? 0 : deal.getHiddenCount(i);
+        }
+
+        // Face down cards, and the stock cards that were never turned up,
+        // which are the bottom ones.
+        unseenPile = new int[cardCount];
+        unseenIndex = new int[cardCount];
+        for (int i = 0; i < count; i++) {
+            int unseen = kind[i] == PILE_STOCK || kind[i] == PILE_TABLEAU ? deal.getHiddenCount(i) : 0;
+            for (int j = 0; j < unseen; j++) {
+                unseenPile[unseenCount] = i;
+                unseenIndex[unseenCount++] = j;
+            }
+        }
+
+        for (int i = 0; i < tableauCount; i++) {
+            RuleTable ruleTable = ruleTables[tableaux[i]];
+            if (ruleTable != null) {
+                for (int card = 0; card < 52; card++) {
+                    safeMask[card] |= ruleTable.getBuildMask(card);
+                }
+            }
+        }
+        canSolve = canSolve(game, deal);
+    }
+
+    // False for games this can't play to a win: those won by clearing the
+    // stacks, and those whose stock is dealt somewhere other than a waste or
+    // the stacks, like Golf, which deals onto a discard pile. Solving one of
+    // those reports unknown.
+    public static boolean canSolve(GameInfo game, Deal deal) {
+        if (!game.isWonOnFoundations()) {
+            return false;
+        }
+        boolean hasStock = false;
+        boolean hasWaste = false;
+        for (int i = 0; i < deal.getAnchorCount(); i++) {
+            if (deal.getType(i) == CardAnchor.DEAL_FROM) {
+                hasStock = true;
+            } else if (deal.getType(i) == CardAnchor.DEAL_TO) {
+                hasWaste = true;
+            }
+        }
+        return !hasStock || hasWaste;
+    }
+
+    @Override
+    public int solve() {
+        nodeCount = 0;
+        solutionLength = 0;
+        expandedCount = 0;
+        branchTotal = 0;
+        forcedCount = 0;
+        if (!canSolve) {
+            solution = new int[0];
+            return RESULT_UNKNOWN;
+        }
+        if (homeCount == cardCount) {
+            solution = new int[0];
+            return RESULT_SOLVED;
+        }
+        table.add(hash(), 0);
+        int depth = 0;
+        generate(0, 0);
+        countBranches(0);
+        while (depth >= 0) {
+            if (moveNext[depth] == moveEnd[depth]) {
+                depth--;
+                if (depth >= 0) {
+                    undo(path[depth]);
+                }
+                continue;
+            }
+            int move = play(moves[moveNext[depth]++]);
+            if (++nodeCount > maxNodes || isCancelled) {
+                undo(move);
+                unwind(depth);
+                return RESULT_UNKNOWN;
+            }
+            if (homeCount == cardCount) {
+                path[depth] = move;
+                solutionLength = depth + 1;
+                solution = new int[solutionLength];
+                System.arraycopy(path, 0, solution, 0, solutionLength);
+                unwind(depth + 1);
+                return RESULT_SOLVED;
+            }
+            if (!table.add(hash(), depth + 1)) {
+                undo(move);
+                continue;
+            }
+            path[depth] = move;
+            depth++;
+            generate(depth, moveEnd[depth - 1]);
+            countBranches(depth);
+        }
+        return RESULT_UNSOLVABLE;
+    }
+
+    private void countBranches(int depth) {
+        int branches = moveEnd[depth] - moveStart[depth];
+        expandedCount++;
+        branchTotal += branches;
+        if (branches == 1) {
+            forcedCount++;
+        }
+    }
+
+    public int getExpandedCount() {
+        return expandedCount;
+    }
+
+    // Moves to choose from per position, over the last search.
+    public double getBranching() {
+        return expandedCount == 0 ? 0 : (double) branchTotal / expandedCount;
+    }
+
+    // Share of the positions in the last search that had only one move.
+    public double getForcedShare() {
+        return expandedCount == 0 ? 0 : (double) forcedCount / expandedCount;
+    }
+
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    // Plays as if only the first limit free cells were there, to find how
+    // many a deal needs. Cells that hold a card are kept.
+    public void setCellLimit(int limit) {
+        while (cellCount > limit && pileCount[cells[cellCount - 1]] == 0) {
+            cellCount--;
+            emptyCells--;
+        }
+    }
+
+    public int getUnseenCount() {
+        return unseenCount;
+    }
+
+    // Copies the face down cards into cards, in a fixed order.
+    public void getUnseen(int[] cards) {
+        for (int i = 0; i < unseenCount; i++) {
+            cards[i] = piles[unseenPile[i]][unseenIndex[i]];
+        }
+    }
+
+    // Deals the face down cards again: cards must be a reordering of what
+    // getUnseen gave. Only call this between solves.
+    public void setUnseen(int[] cards) {
+        for (int i = 0; i < unseenCount; i++) {
+            int pile = unseenPile[i];
+            int index = unseenIndex[i];
+            pileHash[pile] ^= PILE_KEYS[index * 52 + piles[pile][index]] ^
+                    PILE_KEYS[index * 52 + cards[i]];
+            piles[pile][index] = (byte) cards[i];
+        }
+    }
+
+    // Undoes the moves on the path so the solver is back at the start.
+    private void unwind(int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            undo(path[i]);
+        }
+    }
+
+    public static int getKind(int move) {
+        return (move >>> 24) & 0xf;
+    }
+
+    public static int getFrom(int move) {
+        return (move >>> 16) & 0xff;
+    }
+
+    public static int getTo(int move) {
+        return (move >>> 8) & 0xff;
+    }
+
+    public static int getCount(int move) {
+        return move & 0xff;
+    }
+
+    // True if playing the move turned a face down card over.
+    public static boolean getUnhide(int move) {
+        return (move & UNHIDE) != 0;
+    }
+
+    static int makeMove(int kind, int from, int to, int count) {
+        return kind << 24 | from << 16 | to << 8 | count;
+    }
+
+    // Fills in the moves for a new depth, best first. A completed run, or a
+    // card that can go up safely, is the only move tried. Otherwise the
+    // foundation moves come first, then moves onto the stacks and into the
+    // cells, ordered by what they uncover, and dealing comes last.
+    private void generate(int depth, int start) {
+        ensureDepth(depth);
+        moveStart[depth] = start;
+        moveNext[depth] = start;
+        int end = start;
+
+        if (removesRuns) {
+            for (int i = 0; i < tableauCount; i++) {
+                if (completesRun(tableaux[i])) {
+                    int pile = tableaux[i];
+                    end = add(end, makeMove(MOVE_COMPLETE_RUN, pile,
+                            piles[pile][pileCount[pile] - 1] / 13, 13));
+                    moveEnd[depth] = end;
+                    return;
+                }
+            }
+        }
+
+        // Playing from the waste changes how a redeal falls when more than
+        // one card is dealt at a time, so that is never forced.
+        for (int pile = 0; pile < kind.length; pile++) {
+            int card = getTopCard(pile);
+            if (card >= 0 && isSafe(card) && (kind[pile] != PILE_WASTE || dealCount == 1)) {
+                end = add(end, makeMove(MOVE_FOUNDATION, pile, card, 1));
+                moveEnd[depth] = end;
+                return;
+            }
+        }
+        for (int pile = 0; pile < kind.length; pile++) {
+            int card = getTopCard(pile);
+            if (card >= 0 && canFound(card)) {
+                end = add(end, makeMove(MOVE_FOUNDATION, pile, card, 1));
+            }
+        }
+
+        int pileMoves = end;
+        for (int from = 0; from < kind.length; from++) {
+            int most = getPickupCount(from);
+            if (most == 0) {
+                continue;
+            }
+            long triedGroups = 0;
+            for (int i = 0; i < tableauCount; i++) {
+                int to = tableaux[i];
+                if (to == from || ruleTables[to] == null ||
+                        dropoff[to] == GenericAnchor.PACK_NONE) {
+                    continue;
+                }
+                if (pileCount[to] == 0) {
+                    // All empty stacks of a group are alike.
+                    if ((triedGroups & 1L << group[to]) != 0) {
+                        continue;
+                    }
+                    triedGroups |= 1L << group[to];
+                }
+                for (int n = 1; n <= most; n++) {
+                    if (canDrop(from, to, n)) {
+                        end = add(end, makeMove(MOVE_PILE, from, to, n));
+                    }
+                }
+            }
+            if (emptyCells > 0 && kind[from] != PILE_CELL) {
+                for (int i = 0; i < cellCount; i++) {
+                    if (pileCount[cells[i]] == 0) {
+                        end = add(end, makeMove(MOVE_PILE, from, cells[i], 1));
+                        break;
+                    }
+                }
+            }
+        }
+        sortPileMoves(pileMoves, end);
+
+        if (stock >= 0 && pileCount[stock] > 0) {
+            if (stockStyle == Rules.STOCK_TO_STACKS) {
+                end = add(end, makeMove(MOVE_DEAL_STACKS, stock, 0,
+                        Math.min(tableauCount, pileCount[stock])));
+            } else if (waste >= 0) {
+                end = add(end, makeMove(MOVE_DEAL, stock, waste,
+                        Math.min(dealCount, pileCount[stock])));
+            }
+        } else if (stock >= 0 && waste >= 0 && pileCount[waste] > 0 && redealsLeft != 0) {
+            end = add(end, makeMove(MOVE_REDEAL, waste, stock, pileCount[waste]));
+        }
+        moveEnd[depth] = end;
+    }
+
+    private int add(int end, int move) {
+        if (end == moves.length) {
+            moves = grow(moves, moves.length * 2);
+            scores = new int[moves.length];
+        }
+        moves[end] = move;
+        return end + 1;
+    }
+
+    // Top card that can be picked up from pile, or -1.
+    private int getTopCard(int pile) {
+        return getPickupCount(pile) > 0 ? piles[pile][pileCount[pile] - 1] : -1;
+    }
+
+    // Most cards that can be picked up from pile together.
+    private int getPickupCount(int pile) {
+        int count = pileCount[pile];
+        if (count == 0) {
+            return 0;
+        }
+        switch (kind[pile]) {
+            case PILE_CELL:
+            case PILE_WASTE:
+                return 1;
+            case PILE_TABLEAU:
+                break;
+            default:
+                return 0;
+        }
+        if (count == hidden[pile]) {
+            return 0;
+        }
+        if (ruleTables[pile] == null) {
+            return 1;
+        }
+        int run = 1;
+        while (count - run > hidden[pile] &&
+                ruleTables[pile].canMove(piles[pile][count - run - 1], piles[pile][count - run])) {
+            run++;
+        }
+        switch (pickup[pile]) {
+            case GenericAnchor.PACK_NONE:
+                return 0;
+            case GenericAnchor.PACK_ONE:
+                return 1;
+            case GenericAnchor.PACK_LIMIT_BY_FREE:
+                return Math.min(run, game.getMoveLimit(emptyCells, emptyTableaux, false, false));
+        }
+        return run;
+    }
+
+    // True if the top count cards of from may go on stack to.
+    private boolean canDrop(int from, int to, int count) {
+        int card = piles[from][pileCount[from] - count];
+        boolean toEmpty = pileCount[to] == 0;
+        if (toEmpty) {
+            // Moving a whole stack to an empty one that plays the same gets nowhere.
+            if (count == pileCount[from] && group[from] == group[to]) {
+                return false;
+            }
+            if (!ruleTables[to].canStart(card)) {
+                return false;
+            }
+        } else {
+            int top = piles[to][pileCount[to] - 1];
+            if (!ruleTables[to].canBuild(top, card)) {
+                return false;
+            }
+            // Swapping a run between two copies of the same card is pointless.
+            int below = pileCount[from] - count - 1;
+            if (below >= hidden[from] && below >= 0 && piles[from][below] == top &&
+                    group[from] == group[to]) {
+                return false;
+            }
+        }
+        switch (dropoff[to]) {
+            case GenericAnchor.PACK_ONE:
+                return count == 1;
+            case GenericAnchor.PACK_LIMIT_BY_FREE:
+                // The limit is worked out with the cards already lifted, as
+                // the anchors do it.
+                boolean fromEmptied = kind[from] == PILE_TABLEAU && count == pileCount[from];
+                int freeCells = emptyCells + (kind[from] == PILE_CELL ? 1 : 0);
+                int freeStacks = emptyTableaux + (fromEmptied ? 1 : 0);
+                return count <= game.getMoveLimit(freeCells, freeStacks, fromEmptied, toEmpty);
+        }
+        return true;
+    }
+
+    // True if the top of pile is a king to ace run of one suit.
+    private boolean completesRun(int pile) {
+        int count = pileCount[pile];
+        if (count - hidden[pile] < 13) {
+            return false;
+        }
+        int suit = piles[pile][count - 1] / 13;
+        for (int i = 0; i < 13; i++) {
+            if (piles[pile][count - 1 - i] != suit * 13 + i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Orders moves between anchors so the ones that uncover something useful
+    // are tried first. The lists are short, so an insertion sort does.
+    private void sortPileMoves(int start, int end) {
+        for (int i = start; i < end; i++) {
+            scores[i] = scorePileMove(moves[i]);
+        }
+        for (int i = start + 1; i < end; i++) {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+            while (j >= start && scores[j] < score) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+
+    private int scorePileMove(int move) {
+        int from = getFrom(move);
+        int to = getTo(move);
+        int left = pileCount[from] - getCount(move);
+        int score = 0;
+        if (kind[from] == PILE_CELL) {
+            score += 35;
+        } else if (kind[from] == PILE_WASTE) {
+            score += 30;
+        } else if (left == 0) {
+            score += 20;
+        } else if (left == hidden[from]) {
+            score += 45;
+        } else {
+            int exposed = piles[from][left - 1];
+            if (canFound(exposed)) {
+                score += 40;
+            } else {
+                for (int i = 0; i < tableauCount; i++) {
+                    int pile = tableaux[i];
+                    if (pile != from && pileCount[pile] > hidden[pile] && ruleTables[pile] != null &&
+                            ruleTables[pile].canBuild(exposed, piles[pile][pileCount[pile] - 1])) {
+                        score += 10;
+                        break;
+                    }
+                }
+            }
+        }
+        if (kind[to] == PILE_CELL) {
+            score -= 20;
+        } else if (pileCount[to] == 0) {
+            score -= 15;
+        }
+        return score;
+    }
+
+    // Plays move, returning it with the unhide flag set if a card was
+    // turned over.
+    private int play(int move) {
+        int from = getFrom(move);
+        int to = getTo(move);
+        int count = getCount(move);
+        switch (getKind(move)) {
+            case MOVE_DEAL:
+            case MOVE_REDEAL:
+                for (int i = 0; i < count; i++) {
+                    pushPile(to, popPile(from));
+                }
+                if (getKind(move) == MOVE_REDEAL && redealsLeft > 0) {
+                    redealsLeft--;
+                }
+                return move;
+            case MOVE_DEAL_STACKS:
+                for (int i = 0; i < count; i++) {
+                    pushPile(tableaux[i], popPile(stock));
+                }
+                return move;
+            case MOVE_FOUNDATION:
+                addFoundation(popPile(from));
+                break;
+            case MOVE_PILE:
+                movePile(from, to, count);
+                break;
+            case MOVE_COMPLETE_RUN:
+                for (int i = 0; i < count; i++) {
+                    popPile(from);
+                }
+                homeCount += count;
+                break;
+        }
+        if (kind[from] == PILE_TABLEAU && pileCount[from] > 0 && hidden[from] == pileCount[from]) {
+            hidden[from]--;
+            return move | UNHIDE;
+        }
+        return move;
+    }
+
+    private void undo(int move) {
+        int from = getFrom(move);
+        int to = getTo(move);
+        int count = getCount(move);
+        if (getUnhide(move)) {
+            hidden[from]++;
+        }
+        switch (getKind(move)) {
+            case MOVE_DEAL:
+            case MOVE_REDEAL:
+                for (int i = 0; i < count; i++) {
+                    pushPile(from, popPile(to));
+                }
+                if (getKind(move) == MOVE_REDEAL && redealsLeft >= 0) {
+                    redealsLeft++;
+                }
+                break;
+            case MOVE_DEAL_STACKS:
+                for (int i = count - 1; i >= 0; i--) {
+                    pushPile(stock, popPile(tableaux[i]));
+                }
+                break;
+            case MOVE_FOUNDATION:
+                removeFoundation(to);
+                pushPile(from, to);
+                break;
+            case MOVE_PILE:
+                movePile(to, from, count);
+                break;
+            case MOVE_COMPLETE_RUN:
+                for (int i = count - 1; i >= 0; i--) {
+                    pushPile(from, to * 13 + i);
+                }
+                homeCount -= count;
+                break;
+        }
+    }
+
+    private void movePile(int from, int to, int count) {
+        int start = pileCount[from] - count;
+        for (int i = 0; i < count; i++) {
+            pushPile(to, piles[from][start + i]);
+        }
+        for (int i = 0; i < count; i++) {
+            popPile(from);
+        }
+    }
+
+    private void pushPile(int pile, int card) {
+        if (pileCount[pile] == 0) {
+            if (kind[pile] == PILE_TABLEAU) {
+                emptyTableaux--;
+            } else if (kind[pile] == PILE_CELL) {
+                emptyCells--;
+            }
+        }
+        pileHash[pile] ^= PILE_KEYS[pileCount[pile] * 52 + card];
+        piles[pile][pileCount[pile]++] = (byte) card;
+    }
+
+    private int popPile(int pile) {
+        int card = piles[pile][--pileCount[pile]];
+        pileHash[pile] ^= PILE_KEYS[pileCount[pile] * 52 + card];
+        if (pileCount[pile] == 0) {
+            if (kind[pile] == PILE_TABLEAU) {
+                emptyTableaux++;
+            } else if (kind[pile] == PILE_CELL) {
+                emptyCells++;
+            }
+        }
+        return card;
+    }
+
+    private void addFoundation(int card) {
+        if (card % 13 == 0) {
+            acesUp++;
+        }
+        foundationCount[card]++;
+        homeCount++;
+    }
+
+    private void removeFoundation(int card) {
+        if (card % 13 == 0) {
+            acesUp--;
+        }
+        foundationCount[card]--;
+        homeCount--;
+    }
+
+    // An ace needs an empty sink; any other card needs a sink showing the
+    // card below it, and there are as many of those as there are copies of
+    // that card up without the card itself on them.
+    private boolean canFound(int card) {
+        if (sinkCount == 0) {
+            return false;
+        }
+        if (card % 13 == 0) {
+            return acesUp < sinkCount;
+        }
+        return foundationCount[card - 1] > foundationCount[card];
+    }
+
+    // True if card can go up and every card that could be built on it is up.
+    private boolean isSafe(int card) {
+        if (!canFound(card)) {
+            return false;
+        }
+        long mask = safeMask[card];
+        while (mask != 0) {
+            int other = Long.numberOfTrailingZeros(mask);
+            if (foundationCount[other] < copies[other]) {
+                return false;
+            }
+            mask &= mask - 1;
+        }
+        return true;
+    }
+
+    // The foundations and discard hold whatever isn't elsewhere, so they
+    // needn't be hashed. Adding mixed pile hashes makes the result the same
+    // whatever order the anchors of a group are in.
+    private long hash() {
+        long hash = REDEAL_KEYS[Math.min(redealsLeft + 1, REDEAL_KEYS.length - 1)];
+        for (int i = 0; i < kind.length; i++) {
+            if (kind[i] != PILE_HOME) {
+                long h = (pileHash[i] ^ HIDDEN_KEYS[hidden[i]] ^ GROUP_KEYS[group[i]]) *
+                        0x9e3779b97f4a7c15L;
+                hash += h ^ (h >>> 29);
+            }
+        }
+        return hash;
+    }
+
+    private void ensureDepth(int depth) {
+        if (depth < path.length) {
+            return;
+        }
+        int size = path.length * 2;
+        moveStart = grow(moveStart, size);
+        moveNext = grow(moveNext, size);
+        moveEnd = grow(moveEnd, size);
+        path = grow(path, size);
+    }
+
+    private static int[] grow(int[] array, int size) {
+        int[] ret = new int[size];
+        System.arraycopy(array, 0, ret, 0, array.length);
+        return ret;
+    }
+
+    private static void fill(long[] keys, Random random) {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import android.util.Log;
+
+
+// Keeps a running count of every card identity on the board so consistency
+// can be checked in constant time as cards move, instead of walking the whole
+// board every frame. Anchors report each card added or removed; an extra copy
+// of a card is caught as soon as it lands, and a missing card is caught the
+// next time the board settles with nothing in flight.
+class InvariantChecker {
+
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_DEBUG = 1;  // Log and show the failure to the user
+    public static final int LEVEL_STRICT = 2; // Throw as soon as the failure happens
+
+    private static final int IDENTITIES = 52;
+
+    private int level;
+    private int[] counts;
+    private int[] expected;
+    private boolean hasExpected;
+    private int onBoard;
+    private int expectedTotal;
+    private int extraCount;
+    private String failure;
+    private boolean failureShown;
+
+    public InvariantChecker(int level) {
+        this.level = level;
+        counts = new int[IDENTITIES];
+        expected = new int[IDENTITIES];
+        hasExpected = false;
+        onBoard = 0;
+        extraCount = 0;
+        failure = null;
+        failureShown = false;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    // Called once the deal is on the board. suitCount is the number of suits in
+    // play (Spider can use one or two), each appearing cardCount / (13 * suitCount)
+    // times.
+    public void setExpected(int cardCount, int suitCount) {
+        int perIdentity = cardCount / (13 * suitCount);
+        extraCount = 0;
+        for (int i = 0; i < IDENTITIES; i++) {
+            expected[i] = i < 13 * suitCount ? perIdentity : 0;
+            if (counts[i] > expected[i]) {
+                extraCount++;
+            }
+        }
+        expectedTotal = cardCount;
+        hasExpected = true;
+        if (extraCount > 0) {
+            for (int i = 0; i < IDENTITIES; i++) {
+                if (counts[i] > expected[i]) {
+                    fail("Extra: " + (i % 13 + 1) + " " + i / 13);
+                    break;
+                }
+            }
+        }
+    }
+
+    public void cardAdded(Card card) {
+        int idx = card.getIdentity();
+        onBoard++;
+        if (++counts[idx] == expected[idx] + 1 && hasExpected) {
+            extraCount++;
+            fail("Extra: " + card.getValue() + " " + card.getSuit());
+        }
+    }
+
+    public void cardRemoved(Card card) {
+        int idx = card.getIdentity();
+        onBoard--;
+        if (counts[idx]-- == expected[idx] + 1 && hasExpected) {
+            extraCount--;
+        }
+    }
+
+    // Only valid when no cards are being dragged, selected or animated. With no
+    // identity over its limit and the right total, none can be missing either.
+    public void checkSettled() {
+        if (level == LEVEL_OFF || !hasExpected || failure != null) {
+            return;
+        }
+        if (extraCount == 0 && onBoard != expectedTotal) {
+            for (int i = 0; i < IDENTITIES; i++) {
+                if (counts[i] < expected[i]) {
+                    fail("Missing: " + (i % 13 + 1) + " " + i / 13);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Returns the first failure if it hasn't been shown to the user yet.
+    public String takeFailure() {
+        if (failure == null || failureShown) {
+            return null;
+        }
+        failureShown = true;
+        return failure;
+    }
+
+    private void fail(String message) {
+        if (level == LEVEL_OFF) {
+            return;
+        }
+        Log.e("InvariantChecker.java", "Sanity Check Failed: " + message);
+        if (level == LEVEL_STRICT) {
+            throw new IllegalStateException("Sanity Check Failed: " + message);
+        }
+        if (failure == null) {
+            failure = message;
+        }
+    }
+}
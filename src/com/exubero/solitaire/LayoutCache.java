@@ -0,0 +1,41 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.util.HashMap;
+
+
+// Anchor frames worked out by Rules.resize, kept for each game type and screen
+// size. Rotating back to a size already seen, or starting another game of the
+// same type, then only moves the anchors whose frame differs instead of
+// running the whole layout again. Card sizes follow the game type, so the
+// type covers them too.
+class LayoutCache {
+
+    private static HashMap<Long, float[]> frames = new HashMap<Long, float[]>();
+
+    public static synchronized float[] get(int type, int width, int height) {
+        return frames.get(key(type, width, height));
+    }
+
+    public static synchronized void put(int type, int width, int height, float[] frame) {
+        frames.put(key(type, width, height), frame);
+    }
+
+    private static Long key(int type, int width, int height) {
+        return (long) type << 40 | (long) width << 20 | height;
+    }
+}
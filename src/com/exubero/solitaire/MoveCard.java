@@ -28,8 +28,10 @@ class MoveCard {
     private int cardCount;
     private CardAnchor cardAnchor;
     private PointF originalPoint;
+    private CardLayout layout;
 
-    public MoveCard() {
+    public MoveCard(CardLayout layout) {
+        this.layout = layout;
         cards = new Card[MAX_CARDS];
         originalPoint = new PointF(1, 1);
         clear();
@@ -78,7 +80,7 @@ class MoveCard {
 
     public void addCard(Card card) {
         if (cardCount == 0) {
-            originalPoint.set(card.getX(), card.getY());
+            originalPoint.set(layout.getX(card), layout.getY(card));
         }
         cards[cardCount++] = card;
         isValid = true;
@@ -86,7 +88,7 @@ class MoveCard {
 
     public void movePosition(float dx, float dy) {
         for (int i = 0; i < cardCount; i++) {
-            cards[i].movePosition(dx, dy);
+            layout.movePosition(cards[i], dx, dy);
         }
     }
 
@@ -116,7 +118,7 @@ class MoveCard {
         Card[] cards = selectCard.dumpCards();
 
         for (int i = 0; i < count; i++) {
-            cards[i].setPosition(x - Card.WIDTH / 2, y - Card.HEIGHT / 2 + 15 * i);
+            layout.setPosition(cards[i], x - Card.WIDTH / 2, y - Card.HEIGHT / 2 + 15 * i);
             addCard(cards[i]);
         }
         isValid = true;
@@ -127,15 +129,15 @@ class MoveCard {
         Card[] cards = cardAnchor.getCardStack();
 
         for (int i = 0; i < cards.length; i++) {
-            cards[i].setPosition(x, y + 15 * i);
+            layout.setPosition(cards[i], x, y + 15 * i);
             addCard(cards[i]);
         }
         isValid = true;
     }
 
     public boolean hasMoved() {
-        float x = cards[0].getX();
-        float y = cards[0].getY();
+        float x = layout.getX(cards[0]);
+        float y = layout.getY(cards[0]);
 
         if (x >= originalPoint.x - 2 && x <= originalPoint.x + 2 &&
                 y >= originalPoint.y - 2 && y <= originalPoint.y + 2) {
@@ -0,0 +1,282 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.util.ArrayList;
+import java.util.Stack;
+
+
+// The undo/redo timeline. The stack itself holds the moves played so far (the
+// rules push onto it as before); undone moves are kept on a redo stack until a
+// new move is played. Every so often a compact checkpoint of the whole board
+// is taken, so jumping to an arbitrary move only replays the moves between the
+// target and the nearest checkpoint.
+class MoveHistory extends Stack<Move> {
+
+    private static final int CHECKPOINT_INTERVAL = 16;
+
+    private Stack<Move> redoStack;
+    private ArrayList<Checkpoint> checkpoints;
+    private boolean isReplaying;
+    private Card[] storage;
+
+    public MoveHistory() {
+        super();
+        redoStack = new Stack<Move>();
+        checkpoints = new ArrayList<Checkpoint>();
+        isReplaying = false;
+        storage = new Card[CardAnchor.MAX_CARDS];
+    }
+
+    // A newly played move starts a new branch, which invalidates anything that
+    // could be redone and any checkpoint taken further along the old branch.
+    @Override
+    public Move push(Move move) {
+        if (!isReplaying) {
+            redoStack.clear();
+            for (int i = checkpoints.size() - 1; i >= 0; i--) {
+                if (checkpoints.get(i).getHistorySize() > size()) {
+                    checkpoints.remove(i);
+                }
+            }
+        }
+        return super.push(move);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        redoStack.clear();
+        checkpoints.clear();
+    }
+
+    // Total length of the timeline, including moves that can be redone.
+    public int getTimelineSize() {
+        return size() + redoStack.size();
+    }
+
+    public boolean undo(Rules rules) {
+        if (empty()) {
+            return false;
+        }
+        Move move = pop();
+        unapply(rules.getCardAnchors(), rules, move);
+        redoStack.push(move);
+        rules.syncState();
+        return true;
+    }
+
+    public boolean redo(Rules rules) {
+        if (redoStack.empty()) {
+            return false;
+        }
+        Move move = redoStack.pop();
+        apply(rules.getCardAnchors(), rules, move);
+        replayPush(move);
+        rules.syncState();
+        return true;
+    }
+
+    // Moves the board to the state after the first target moves of the timeline.
+    public void jumpTo(Rules rules, int target) {
+        if (target < 0) {
+            target = 0;
+        } else if (target > getTimelineSize()) {
+            target = getTimelineSize();
+        }
+        if (target == size()) {
+            return;
+        }
+
+        Checkpoint best = null;
+        for (int i = 0; i < checkpoints.size(); i++) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            if (checkpoint.getHistorySize() <= target &&
+                    (best == null || checkpoint.getHistorySize() > best.getHistorySize())) {
+                best = checkpoint;
+            }
+        }
+
+        CardAnchor[] anchors = rules.getCardAnchors();
+        if (best != null && target - best.getHistorySize() < Math.abs(target - size())) {
+            // Line the timeline up with the checkpoint without touching the board.
+            while (size() > best.getHistorySize()) {
+                redoStack.push(pop());
+            }
+            while (size() < best.getHistorySize()) {
+                replayPush(redoStack.pop());
+            }
+            best.restore(anchors, rules);
+        }
+
+        while (size() > target) {
+            Move move = pop();
+            unapply(anchors, rules, move);
+            redoStack.push(move);
+        }
+        while (size() < target) {
+            Move move = redoStack.pop();
+            apply(anchors, rules, move);
+            replayPush(move);
+        }
+        rules.syncState();
+    }
+
+    // Called when the board has settled with nothing in flight.
+    public void checkpoint(Rules rules) {
+        int last = -CHECKPOINT_INTERVAL;
+        for (int i = 0; i < checkpoints.size(); i++) {
+            int historySize = checkpoints.get(i).getHistorySize();
+            if (historySize == size()) {
+                return;
+            }
+            if (historySize < size() && historySize > last) {
+                last = historySize;
+            }
+        }
+        if (size() - last >= CHECKPOINT_INTERVAL) {
+            checkpoints.add(new Checkpoint(size(), rules.getCardAnchors(), rules));
+        }
+    }
+
+    private void replayPush(Move move) {
+        isReplaying = true;
+        push(move);
+        isReplaying = false;
+    }
+
+    private static void reverse(Card[] cards, int count) {
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            Card card = cards[i];
+            cards[i] = cards[j];
+            cards[j] = card;
+        }
+    }
+
+    // Puts the cards of a move back where they came from.
+    private void unapply(CardAnchor[] anchors, Rules rules, Move move) {
+        int count = 0;
+        int from = move.getFrom();
+        if (move.getToBegin() != move.getToEnd()) {
+            for (int i = move.getToBegin(); i <= move.getToEnd(); i++) {
+                for (int j = 0; j < move.getCount(); j++) {
+                    storage[count++] = anchors[i].popCard();
+                }
+            }
+        } else {
+            count = move.getCount();
+            anchors[move.getToBegin()].popCards(storage, count);
+        }
+        if (move.getUnhide()) {
+            anchors[from].setHiddenCount(anchors[from].getHiddenCount() + 1);
+        }
+        if (!move.getInvert()) {
+            reverse(storage, count);
+        }
+        anchors[from].addCards(storage, count);
+        if (move.getAddDealCount()) {
+            rules.addDealCount();
+        }
+        for (int i = 0; i < count; i++) {
+            storage[i] = null;
+        }
+    }
+
+    // Plays a move again exactly as the rules first played it.
+    private void apply(CardAnchor[] anchors, Rules rules, Move move) {
+        int from = move.getFrom();
+        if (move.getToBegin() != move.getToEnd()) {
+            for (int i = move.getToBegin(); i <= move.getToEnd(); i++) {
+                for (int j = 0; j < move.getCount(); j++) {
+                    anchors[i].addCard(anchors[from].popCard());
+                }
+            }
+        } else {
+            int count = move.getCount();
+            anchors[from].popCards(storage, count);
+            if (!move.getInvert()) {
+                reverse(storage, count);
+            }
+            anchors[move.getToBegin()].addCards(storage, count);
+            for (int i = 0; i < count; i++) {
+                storage[i] = null;
+            }
+        }
+        if (move.getUnhide()) {
+            anchors[from].setHiddenCount(anchors[from].getHiddenCount() - 1);
+        }
+        if (move.getAddDealCount()) {
+            rules.removeDealCount();
+        }
+    }
+}
+
+// Compact copy of the board at one point of the timeline.
+class Checkpoint {
+    private int historySize;
+    private Card[] cards;
+    private int[] anchorCardCount;
+    private int[] anchorHiddenCount;
+    private boolean[] anchorDone;
+    private int rulesExtra;
+    // What has been seen stays seen, so restore keeps the unseen counts the
+    // anchors have now, no more than their new card counts. Kept here so
+    // restore doesn't allocate.
+    private int[] anchorUnseenCount;
+
+    public Checkpoint(int historySize, CardAnchor[] anchors, Rules rules) {
+        this.historySize = historySize;
+        anchorCardCount = new int[anchors.length];
+        anchorHiddenCount = new int[anchors.length];
+        anchorDone = new boolean[anchors.length];
+        anchorUnseenCount = new int[anchors.length];
+        cards = new Card[rules.getCardCount()];
+        int cardIdx = 0;
+        for (int i = 0; i < anchors.length; i++) {
+            anchorCardCount[i] = anchors[i].getCount();
+            anchorHiddenCount[i] = anchors[i].getHiddenCount();
+            anchorDone[i] = anchors[i].isDone();
+            Card[] anchorCards = anchors[i].getCards();
+            for (int j = 0; j < anchorCardCount[i] && cardIdx < cards.length; j++) {
+                cards[cardIdx++] = anchorCards[j];
+            }
+        }
+        rulesExtra = rules.getRulesExtra();
+    }
+
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    public void restore(CardAnchor[] anchors, Rules rules) {
+        for (int i = 0; i < anchors.length; i++) {
+            anchorUnseenCount[i] = anchors[i].getUnseenCount();
+            while (anchors[i].getCount() > 0) {
+                anchors[i].popCard();
+            }
+        }
+        int cardIdx = 0;
+        for (int i = 0; i < anchors.length; i++) {
+            for (int j = 0; j < anchorCardCount[i]; j++) {
+                anchors[i].addCard(cards[cardIdx++]);
+            }
+            anchors[i].setUnseenCount(Math.min(anchorUnseenCount[i], anchorCardCount[i]));
+            anchors[i].setHiddenCount(anchorHiddenCount[i]);
+            anchors[i].setDone(anchorDone[i]);
+        }
+        rules.setRulesExtra(rulesExtra);
+    }
+}
@@ -41,6 +41,17 @@ public class Options {
         final boolean displayTime = solitaire.GetSettings().getBoolean("DisplayTime", true);
         ((CheckBox) solitaire.findViewById(R.id.display_time)).setChecked(displayTime);
 
+        final boolean displayTimings = solitaire.GetSettings().getBoolean("DisplayTimings", false);
+        ((CheckBox) solitaire.findViewById(R.id.display_timings)).setChecked(displayTimings);
+
+        final boolean winnableDeals = solitaire.GetSettings().getBoolean("WinnableDeals", false);
+        ((CheckBox) solitaire.findViewById(R.id.winnable_deals)).setChecked(winnableDeals);
+        final int difficulty = solitaire.GetSettings().getInt("WinnableDifficulty",
+                DealGenerator.DIFFICULTY_MEDIUM);
+        ((RadioButton) solitaire.findViewById(R.id.difficulty_easy)).setChecked(difficulty == DealGenerator.DIFFICULTY_EASY);
+        ((RadioButton) solitaire.findViewById(R.id.difficulty_medium)).setChecked(difficulty == DealGenerator.DIFFICULTY_MEDIUM);
+        ((RadioButton) solitaire.findViewById(R.id.difficulty_hard)).setChecked(difficulty == DealGenerator.DIFFICULTY_HARD);
+
         // Solitaire stuff
         final boolean dealThree = solitaire.GetSettings().getBoolean("SolitaireDealThree", true);
         final boolean styleNormal = solitaire.GetSettings().getBoolean("SolitaireStyleNormal", true);
@@ -61,6 +72,16 @@ public class Options {
         ((RadioButton) solitaire.findViewById(R.id.auto_move_fling_only)).setChecked(autoMove == Rules.AUTO_MOVE_FLING_ONLY);
         ((RadioButton) solitaire.findViewById(R.id.auto_move_never)).setChecked(autoMove == Rules.AUTO_MOVE_NEVER);
 
+        // Sanity check. Stopping on a failure crashes the game, so only debug
+        // builds offer it.
+        final int invariantLevel = solitaire.getInvariantLevel();
+        if (solitaire.isDebuggable()) {
+            solitaire.findViewById(R.id.sanity_check_strict).setVisibility(View.VISIBLE);
+        }
+        ((RadioButton) solitaire.findViewById(R.id.sanity_check_show)).setChecked(invariantLevel == InvariantChecker.LEVEL_DEBUG);
+        ((RadioButton) solitaire.findViewById(R.id.sanity_check_strict)).setChecked(invariantLevel == InvariantChecker.LEVEL_STRICT);
+        ((RadioButton) solitaire.findViewById(R.id.sanity_check_off)).setChecked(invariantLevel == InvariantChecker.LEVEL_OFF);
+
         final Button accept = (Button) solitaire.findViewById(R.id.button_accept);
         accept.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
@@ -79,6 +100,28 @@ public class Options {
                     commit = true;
                 }
 
+                if (displayTimings != ((CheckBox) solitaire.findViewById(R.id.display_timings)).isChecked()) {
+                    editor.putBoolean("DisplayTimings", !displayTimings);
+                    commit = true;
+                }
+
+                if (winnableDeals != ((CheckBox) solitaire.findViewById(R.id.winnable_deals)).isChecked()) {
+                    editor.putBoolean("WinnableDeals", !winnableDeals);
+                    commit = true;
+                }
+
+                int newDifficulty = DealGenerator.DIFFICULTY_MEDIUM;
+                if (((RadioButton) solitaire.findViewById(R.id.difficulty_easy)).isChecked()) {
+                    newDifficulty = DealGenerator.DIFFICULTY_EASY;
+                } else if (((RadioButton) solitaire.findViewById(R.id.difficulty_hard)).isChecked()) {
+                    newDifficulty = DealGenerator.DIFFICULTY_HARD;
+                }
+
+                if (newDifficulty != difficulty) {
+                    editor.putInt("WinnableDifficulty", newDifficulty);
+                    commit = true;
+                }
+
                 if (dealThree != ((RadioButton) solitaire.findViewById(R.id.deal_3)).isChecked()) {
                     editor.putBoolean("SolitaireDealThree", !dealThree);
                     commit = true;
@@ -122,6 +165,18 @@ public class Options {
                     commit = true;
                 }
 
+                int newInvariantLevel = InvariantChecker.LEVEL_OFF;
+                if (((RadioButton) solitaire.findViewById(R.id.sanity_check_show)).isChecked()) {
+                    newInvariantLevel = InvariantChecker.LEVEL_DEBUG;
+                } else if (((RadioButton) solitaire.findViewById(R.id.sanity_check_strict)).isChecked()) {
+                    newInvariantLevel = InvariantChecker.LEVEL_STRICT;
+                }
+
+                if (newInvariantLevel != invariantLevel) {
+                    editor.putInt("InvariantLevel", newInvariantLevel);
+                    commit = true;
+                }
+
                 if (commit) {
                     editor.commit();
                     solitaire.refreshOptions();
@@ -62,6 +62,9 @@ public class Replay implements Runnable {
             }
             view.undo();
         }
+        // The replay rebuilds the board without the history, so there is
+        // nothing left to redo afterwards.
+        history.clear();
         view.drawBoard();
         isPlaying = true;
         playNext();
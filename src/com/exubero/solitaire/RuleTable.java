@@ -0,0 +1,193 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.util.HashMap;
+
+
+// A GenericAnchor configuration compiled into lookup tables. For every card
+// identity there is a 52 bit mask of the cards that may be built on it, and
+// of the cards that may sit on it in a run that can be picked up, plus a mask
+// of the cards an empty stack will take. Checking a rule is then a single bit
+// test instead of a walk through the configuration switches.
+class RuleTable {
+
+    private static final long ALL_CARDS = (1L << 52) - 1;
+
+    // Anchors with the same configuration share one table.
+    private static HashMap<Integer, RuleTable> tables = new HashMap<Integer, RuleTable>();
+
+    private long startMask;
+    private long[] buildMask;
+    private long[] moveMask;
+
+    public static synchronized RuleTable get(int startSeq, int buildSeq, int buildSuit,
+                                             int moveSeq, int moveSuit, boolean moveWrap) {
+        int key = startSeq | buildSeq << 4 | buildSuit << 8 | moveSeq << 12 | moveSuit << 16 |
+                (moveWrap ? 1 << 20 : 0);
+        RuleTable table = tables.get(key);
+        if (table == null) {
+            table = new RuleTable(startSeq, buildSeq, buildSuit, moveSeq, moveSuit, moveWrap);
+            tables.put(key, table);
+        }
+        return table;
+    }
+
+    private RuleTable(int startSeq, int buildSeq, int buildSuit,
+                      int moveSeq, int moveSuit, boolean moveWrap) {
+        buildMask = new long[52];
+        moveMask = new long[52];
+
+        if (startSeq == GenericAnchor.START_NONE) {
+            startMask = 0;
+        } else if (buildSeq == GenericAnchor.SEQ_ANY) {
+            startMask = ALL_CARDS;
+        } else if (startSeq == GenericAnchor.START_KING) {
+            startMask = 0;
+            for (int suit = 0; suit < 4; suit++) {
+                startMask |= 1L << (suit * 13 + Card.KING - 1);
+            }
+        } else {
+            startMask = ALL_CARDS;
+        }
+
+        for (int lower = 0; lower < 52; lower++) {
+            for (int upper = 0; upper < 52; upper++) {
+                int lowerValue = lower % 13 + 1;
+                int lowerSuit = lower / 13;
+                int upperValue = upper % 13 + 1;
+                int upperSuit = upper / 13;
+                if (canBuild(buildSeq, buildSuit, lowerValue, lowerSuit, upperValue, upperSuit)) {
+                    buildMask[lower] |= 1L << upper;
+                }
+                if (canMove(moveSeq, moveSuit, moveWrap, lowerValue, lowerSuit, upperValue, upperSuit)) {
+                    moveMask[lower] |= 1L << upper;
+                }
+            }
+        }
+    }
+
+    public boolean canStart(Card card) {
+        return canStart(card.getIdentity());
+    }
+
+    // True if card may be built on top.
+    public boolean canBuild(Card top, Card card) {
+        return canBuild(top.getIdentity(), card.getIdentity());
+    }
+
+    // True if upper may be picked up together with lower, the card under it.
+    public boolean canMove(Card lower, Card upper) {
+        return canMove(lower.getIdentity(), upper.getIdentity());
+    }
+
+    // The same checks on card identities, for the solvers.
+    public boolean canStart(int card) {
+        return (startMask & 1L << card) != 0;
+    }
+
+    public boolean canBuild(int top, int card) {
+        return (buildMask[top] & 1L << card) != 0;
+    }
+
+    public boolean canMove(int lower, int upper) {
+        return (moveMask[lower] & 1L << upper) != 0;
+    }
+
+    // Mask of the cards that may be built on top.
+    public long getBuildMask(int top) {
+        return buildMask[top];
+    }
+
+    private static boolean canBuild(int buildSeq, int buildSuit, int tvalue, int tsuit,
+                                    int value, int suit) {
+        switch (buildSeq) {
+            case GenericAnchor.SEQ_ANY:
+                return true;
+            case GenericAnchor.SEQ_ASC:
+                if (value - tvalue != 1) {
+                    return false;
+                }
+                break;
+            case GenericAnchor.SEQ_DSC:
+                if (tvalue - value != 1) {
+                    return false;
+                }
+                break;
+            case GenericAnchor.SEQ_SEQ:
+                if (Math.abs(tvalue - value) != 1) {
+                    return false;
+                }
+                break;
+        }
+        switch (buildSuit) {
+            case GenericAnchor.SUIT_RB:
+                return Math.abs(tsuit - suit) % 2 != 0;
+            case GenericAnchor.SUIT_OTHER:
+                return tsuit != suit;
+            case GenericAnchor.SUIT_COLOR:
+                return Math.abs(tsuit - suit) == 2;
+            case GenericAnchor.SUIT_SAME:
+                return tsuit == suit;
+        }
+        return true;
+    }
+
+    private static boolean canMove(int moveSeq, int moveSuit, boolean wrap, int lvalue, int lsuit,
+                                   int uvalue, int usuit) {
+        switch (moveSeq) {
+            case GenericAnchor.SEQ_ASC:
+                if (!isSequenceAscending(lvalue, uvalue, wrap)) {
+                    return false;
+                }
+                break;
+            case GenericAnchor.SEQ_DSC:
+                if (!isSequenceAscending(uvalue, lvalue, wrap)) {
+                    return false;
+                }
+                break;
+            case GenericAnchor.SEQ_SEQ:
+                if (!isSequenceAscending(uvalue, lvalue, wrap) &&
+                        !isSequenceAscending(lvalue, uvalue, wrap)) {
+                    return false;
+                }
+                break;
+        }
+        switch (moveSuit) {
+            case GenericAnchor.SUIT_COLOR:
+                return !isOppositeColours(lsuit, usuit);
+            case GenericAnchor.SUIT_OTHER:
+                return lsuit != usuit;
+            case GenericAnchor.SUIT_RB:
+                return isOppositeColours(lsuit, usuit);
+            case GenericAnchor.SUIT_SAME:
+                return lsuit == usuit;
+        }
+        return true;
+    }
+
+    private static boolean isSequenceAscending(int v1, int v2, boolean wrap) {
+        return v2 + 1 == v1 || (wrap && v2 == Card.KING && v1 == Card.ACE);
+    }
+
+    private static boolean isOppositeColours(int s1, int s2) {
+        boolean black1 = s1 == Card.CLUBS || s1 == Card.SPADES;
+        boolean black2 = s2 == Card.CLUBS || s2 == Card.SPADES;
+        boolean red1 = s1 == Card.HEARTS || s1 == Card.DIAMONDS;
+        boolean red2 = s2 == Card.HEARTS || s2 == Card.DIAMONDS;
+        return (black1 && red2) || (red1 && black2);
+    }
+}
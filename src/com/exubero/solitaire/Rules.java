@@ -16,6 +16,7 @@
 package com.exubero.solitaire;
 
 import android.os.Bundle;
+import android.util.Log;
 
 import java.util.Stack;
 
@@ -26,6 +27,8 @@ public abstract class Rules {
     public static final int SPIDER = 2;
     public static final int FREECELL = 3;
     public static final int FORTYTHIEVES = 4;
+    public static final int BAKERSDOZEN = 5;
+    public static final int GOLF = 6;
 
     public static final int EVENT_INVALID = -1;
     public static final int EVENT_DEAL = 1;
@@ -38,6 +41,11 @@ public abstract class Rules {
     public static final int AUTO_MOVE_FLING_ONLY = 1;
     public static final int AUTO_MOVE_NEVER = 0;
 
+    // How the stock is dealt: onto the waste a few cards at a time, or one
+    // card onto each stack.
+    public static final int STOCK_TO_WASTE = 1;
+    public static final int STOCK_TO_STACKS = 2;
+
     protected SolitaireView view;
     protected Stack<Move> moveHistory;
     protected AnimateCard animateCard;
@@ -46,9 +54,12 @@ public abstract class Rules {
 
     // Anchors
     protected CardAnchor[] cardAnchors;
+    protected AnchorIndex anchorIndex;
+    protected InvariantChecker invariantChecker;
     protected int cardAnchorCount;
     protected Deck deck;
     protected int cardCount;
+    private int[] cardCopies;
 
     // Automove
     protected int autoMoveLevel;
@@ -71,6 +82,12 @@ public abstract class Rules {
             case FORTYTHIEVES:
                 ret = new FortyThieves();
                 break;
+            case BAKERSDOZEN:
+                ret = new SpecRules(VariantSpec.get(VariantSpec.BAKERS_DOZEN));
+                break;
+            case GOLF:
+                ret = new SpecRules(VariantSpec.get(VariantSpec.GOLF));
+                break;
         }
 
         if (ret != null) {
@@ -79,8 +96,11 @@ public abstract class Rules {
             ret.setMoveHistory(moveHistory);
             ret.setAnimateCard(animate);
             ret.setEventPoster(new EventPoster(ret));
+            ret.setAnchorIndex(new AnchorIndex(view.getCardLayout()));
+            ret.setInvariantChecker(new InvariantChecker(InvariantChecker.LEVEL_DEBUG));
             ret.refreshOptions();
             ret.init(map);
+            ret.getInvariantChecker().setExpected(ret.getCardCount(), ret.getSuitCount());
         }
         return ret;
     }
@@ -97,6 +117,19 @@ public abstract class Rules {
         return cardAnchors;
     }
 
+    // Where this game's cards are drawn, owned by the view.
+    public CardLayout getCardLayout() {
+        return view.getCardLayout();
+    }
+
+    public AnchorIndex getAnchorIndex() {
+        return anchorIndex;
+    }
+
+    public InvariantChecker getInvariantChecker() {
+        return invariantChecker;
+    }
+
     public void setType(int type) {
         this.type = type;
     }
@@ -121,6 +154,14 @@ public abstract class Rules {
         eventPoster = ep;
     }
 
+    public void setAnchorIndex(AnchorIndex index) {
+        anchorIndex = index;
+    }
+
+    public void setInvariantChecker(InvariantChecker checker) {
+        invariantChecker = checker;
+    }
+
     public boolean getIgnoreEvents() {
         return ignoreEvents;
     }
@@ -159,10 +200,82 @@ public abstract class Rules {
     public void addDealCount() {
     }
 
+    // Reverses addDealCount when a redeal is redone.
+    public void removeDealCount() {
+    }
+
+    // Restores the value saved from getRulesExtra.
+    public void setRulesExtra(int extra) {
+    }
+
+    // Called after moves are undone or redone outside of the normal event flow
+    // so derived state, like which anchors are marked done, matches the board.
+    public void syncState() {
+    }
+
     public int countFreeSpaces() {
         return 0;
     }
 
+    // Most cards that can be moved as one from a stack. to is the destination,
+    // or null to ask for the limit onto any non empty stack.
+    public int getMoveLimit(CardAnchor from, CardAnchor to) {
+        return countFreeSpaces() + 1;
+    }
+
+    // The same limit from counts, for the solvers, which keep their own copy
+    // of the board. fromEmptied is set if the move takes every card of the
+    // source, toEmpty if the destination is an empty stack.
+    public int getMoveLimit(int freeCells, int emptyStacks, boolean fromEmptied, boolean toEmpty) {
+        return freeCells + emptyStacks + 1;
+    }
+
+    public int getStockStyle() {
+        return STOCK_TO_WASTE;
+    }
+
+    // Cards dealt onto the waste at a time.
+    public int getDealCount() {
+        return 1;
+    }
+
+    // Times the waste can still be turned over into the stock, -1 for no limit.
+    public int getRedealCount() {
+        return 0;
+    }
+
+    // True if a completed king to ace run is taken off the stacks on its own.
+    public boolean removesCompletedRuns() {
+        return false;
+    }
+
+    // True if any order of the cards is a deal of this game, so a deal can be
+    // made by shuffling a copy of another.
+    public boolean isShuffledDeal() {
+        return true;
+    }
+
+    // True if the game is won by putting every card up, rather than by
+    // clearing the stacks.
+    public boolean isWonOnFoundations() {
+        return true;
+    }
+
+    // Number of distinct suits dealt, each repeated to fill getCardCount().
+    public int getSuitCount() {
+        return 4;
+    }
+
+    // The shared card for a restored value and suit. Each call hands out the
+    // next copy, so the identical cards of a multi deck game stay distinct.
+    protected Card takeCard(int value, int suit) {
+        if (cardCopies == null) {
+            cardCopies = new int[52];
+        }
+        int identity = suit * 13 + value - 1;
+        return Card.get(value, suit, cardCopies[identity]++);
+    }
+
     protected void signalWin() {
         view.displayWin();
     }
@@ -202,20 +315,49 @@ public abstract class Rules {
 
     abstract public void resize(int width, int height);
 
+    // Positions the anchors for the screen size and rebuilds the touch index
+    // to match. Use this rather than calling resize directly. The frames from
+    // resize are cached, so a size seen before is restored from the cache.
+    public void layout(int width, int height) {
+        float[] frame = LayoutCache.get(type, width, height);
+        if (frame != null && frame.length == cardAnchorCount * CardAnchor.FRAME_SIZE) {
+            for (int i = 0; i < cardAnchorCount; i++) {
+                cardAnchors[i].restoreFrame(frame, i * CardAnchor.FRAME_SIZE);
+            }
+        } else {
+            resize(width, height);
+            frame = new float[cardAnchorCount * CardAnchor.FRAME_SIZE];
+            for (int i = 0; i < cardAnchorCount; i++) {
+                cardAnchors[i].saveFrame(frame, i * CardAnchor.FRAME_SIZE);
+            }
+            LayoutCache.put(type, width, height, frame);
+        }
+        anchorIndex.rebuild(cardAnchors, width, height);
+    }
+
+    public void anchorChanged(CardAnchor anchor) {
+        if (anchorIndex != null) {
+            anchorIndex.invalidate(anchor.getNumber());
+        }
+    }
+
+    // Called whenever cards are put on or taken off anchor.
+    public void cardCountChanged(CardAnchor anchor) {
+    }
+
     public boolean fling(MoveCard moveCard) {
         moveCard.release();
         return false;
     }
 
     public void handleEvents() {
-        while (!ignoreEvents && eventPoster.hasEvent()) {
-            eventPoster.handleEvent();
-        }
+        eventPoster.handleEvents();
     }
 
     public void refreshOptions() {
         autoMoveLevel = view.getSettings().getInt("AutoMoveLevel", Rules.AUTO_MOVE_ALWAYS);
         wasFling = false;
+        invariantChecker.setLevel(view.getInvariantLevel());
     }
 }
 
@@ -276,10 +418,10 @@ class NormalSolitaire extends Rules {
 
                 for (int i = 0; i < 13; i++) {
                     for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
-                        Card card = new Card(value[cardIdx], suit[cardIdx]);
+                        Card card = takeCard(value[cardIdx], suit[cardIdx]);
                         cardAnchors[i].addCard(card);
                     }
-                    cardAnchors[i].setHiddenCount(hiddenCount[i]);
+                    cardAnchors[i].setUnseenCount(hiddenCount[i]);
                 }
                 if (dealsRemainingCount != -1) {
                     // reset to zero as getScore() uses it in its calculation.
@@ -304,6 +446,7 @@ class NormalSolitaire extends Rules {
         while (!deck.isEmpty()) {
             cardAnchors[0].addCard(deck.popCard());
         }
+        cardAnchors[0].setUnseenCount(cardAnchors[0].getCount());
 
         if (view.getSettings().getBoolean("SolitaireStyleNormal", true)) {
             dealsRemainingCount = -1;
@@ -480,6 +623,16 @@ class NormalSolitaire extends Rules {
         return dealsRemainingCount;
     }
 
+    @Override
+    public int getDealCount() {
+        return isDealThree ? 3 : 1;
+    }
+
+    @Override
+    public int getRedealCount() {
+        return dealsRemainingCount;
+    }
+
     @Override
     public String getGameTypeString() {
         if (dealsRemainingCount == -1) {
@@ -535,6 +688,7 @@ class NormalSolitaire extends Rules {
                 score += 5 * cardAnchors[i + 2].getCount();
             }
             if (score != lastScore) {
+                lastScore = score;
                 if (score < 0) {
                     scoreString = "-$" + (score * -1);
                 } else {
@@ -565,14 +719,38 @@ class NormalSolitaire extends Rules {
             cardAnchors[0].setDone(false);
         }
     }
+
+    @Override
+    public void removeDealCount() {
+        if (dealsRemainingCount > 0) {
+            dealsRemainingCount--;
+        }
+    }
+
+    @Override
+    public void setRulesExtra(int extra) {
+        dealsRemainingCount = extra;
+    }
+
+    @Override
+    public void syncState() {
+        if (dealsRemainingCount != -1) {
+            cardAnchors[0].setDone(dealsRemainingCount == 0 && cardAnchors[0].getCount() == 0);
+        }
+    }
 }
 
 class Spider extends Rules {
     private boolean isStillDealing;
+    private Card[] completedRun;
+    private String dealString;
+    private int lastDealCount;
 
     public void init(Bundle map) {
         ignoreEvents = true;
         isStillDealing = false;
+        completedRun = new Card[13];
+        lastDealCount = -1;
 
         cardCount = 104;
         cardAnchorCount = 12;
@@ -606,10 +784,10 @@ class Spider extends Rules {
 
                 for (int i = 0; i < cardAnchorCount; i++) {
                     for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
-                        Card card = new Card(value[cardIdx], suit[cardIdx]);
+                        Card card = takeCard(value[cardIdx], suit[cardIdx]);
                         cardAnchors[i].addCard(card);
                     }
-                    cardAnchors[i].setHiddenCount(hiddenCount[i]);
+                    cardAnchors[i].setUnseenCount(hiddenCount[i]);
                 }
 
                 ignoreEvents = false;
@@ -632,6 +810,7 @@ class Spider extends Rules {
         while (!deck.isEmpty()) {
             cardAnchors[10].addCard(deck.popCard());
         }
+        cardAnchors[10].setUnseenCount(cardAnchors[10].getCount());
         ignoreEvents = false;
     }
 
@@ -669,26 +848,20 @@ class Spider extends Rules {
             return;
         }
         if (event == EVENT_STACK_ADD) {
-            if (anchor.getCount() - anchor.getHiddenCount() >= 13) {
-                Card[] card = anchor.getCards();
-                if (card[anchor.getCount() - 1].getValue() == 1) {
-                    int suit = card[anchor.getCount() - 1].getSuit();
-                    int val = 2;
-                    for (int i = anchor.getCount() - 2; i >= 0 && val < 14; i--, val++) {
-                        if (card[i].getValue() != val || card[i].getSuit() != suit) {
-                            break;
-                        }
-                    }
-                    if (val == 14) {
-                        for (int j = 0; j < 13; j++) {
-                            cardAnchors[11].addCard(anchor.popCard());
-                        }
-                        moveHistory.push(new Move(anchor.getNumber(), 11, 13, true, anchor.unhideTopCard()));
-
-                        if (cardAnchors[11].getCount() == cardCount) {
-                            signalWin();
-                        }
-                    }
+            // The movable run is the same suit run on top of the stack, so
+            // thirteen of them ending in an ace is a completed suit.
+            int count = anchor.getCount();
+            if (count >= 13 && anchor.getCards()[count - 1].getValue() == Card.ACE &&
+                    anchor.getMovableCount() >= 13) {
+                anchor.popCards(completedRun, 13);
+                cardAnchors[11].addCards(completedRun, 13);
+                for (int i = 0; i < 13; i++) {
+                    completedRun[i] = null;
+                }
+                moveHistory.push(new Move(anchor.getNumber(), 11, 13, true, anchor.unhideTopCard()));
+
+                if (cardAnchors[11].getCount() == cardCount) {
+                    signalWin();
                 }
             }
             if (isStillDealing) {
@@ -736,6 +909,21 @@ class Spider extends Rules {
         }
     }
 
+    @Override
+    public int getSuitCount() {
+        return view.getSettings().getInt("SpiderSuits", 4);
+    }
+
+    @Override
+    public int getStockStyle() {
+        return STOCK_TO_STACKS;
+    }
+
+    @Override
+    public boolean removesCompletedRuns() {
+        return true;
+    }
+
     @Override
     public boolean hasString() {
         return true;
@@ -744,18 +932,35 @@ class Spider extends Rules {
     @Override
     public String getString() {
         int dealCount = cardAnchors[10].getCount() / 10;
-        if (dealCount == 1) {
-            return "1 deal left";
+        if (dealCount != lastDealCount) {
+            lastDealCount = dealCount;
+            if (dealCount == 1) {
+                dealString = "1 deal left";
+            } else {
+                dealString = dealCount + " deals left";
+            }
         }
-        return dealCount + " deals left";
+        return dealString;
     }
 
 }
 
 class Freecell extends Rules {
 
+    // Running counts of empty free cells and empty stacks, kept up to date
+    // as anchors change.
+    private int freeCellCount;
+    private int emptyStackCount;
+    private boolean[] isEmpty;
+
     public void init(Bundle map) {
         ignoreEvents = true;
+        freeCellCount = 4;
+        emptyStackCount = 8;
+        isEmpty = new boolean[16];
+        for (int i = 0; i < 16; i++) {
+            isEmpty[i] = true;
+        }
 
         // Thirteen total anchors for regular solitaire
         cardCount = 52;
@@ -790,10 +995,10 @@ class Freecell extends Rules {
 
                 for (int i = 0; i < 16; i++) {
                     for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
-                        Card card = new Card(value[cardIdx], suit[cardIdx]);
+                        Card card = takeCard(value[cardIdx], suit[cardIdx]);
                         cardAnchors[i].addCard(card);
                     }
-                    cardAnchors[i].setHiddenCount(hiddenCount[i]);
+                    cardAnchors[i].setUnseenCount(hiddenCount[i]);
                 }
 
                 ignoreEvents = false;
@@ -933,19 +1138,49 @@ class Freecell extends Rules {
     }
 
     @Override
-    public int countFreeSpaces() {
-        int free = 0;
-        for (int i = 0; i < 4; i++) {
-            if (cardAnchors[i].getCount() == 0) {
-                free++;
-            }
+    public void cardCountChanged(CardAnchor anchor) {
+        int number = anchor.getNumber();
+        if (number >= 4 && number < 8) {
+            return;
         }
-        for (int i = 0; i < 8; i++) {
-            if (cardAnchors[i + 8].getCount() == 0) {
-                free++;
+        boolean empty = anchor.getCount() == 0;
+        if (empty != isEmpty[number]) {
+            isEmpty[number] = empty;
+            int change = empty ? 1 : -1;
+            if (number < 4) {
+                freeCellCount += change;
+            } else {
+                emptyStackCount += change;
             }
         }
-        return free;
+    }
+
+    @Override
+    public int countFreeSpaces() {
+        return freeCellCount + emptyStackCount;
+    }
+
+    // A run is moved by parking cards in the free cells and building
+    // sub-runs on empty stacks, so each empty stack doubles how many cards
+    // fit through the free cells. Neither the stack the run is leaving nor
+    // an empty destination can be used along the way.
+    @Override
+    public int getMoveLimit(CardAnchor from, CardAnchor to) {
+        return getMoveLimit(freeCellCount, emptyStackCount,
+                from != null && from.getNumber() >= 8 && from.getCount() == 0,
+                to != null && to.getNumber() >= 8 && to.getCount() == 0);
+    }
+
+    @Override
+    public int getMoveLimit(int freeCells, int emptyStacks, boolean fromEmptied, boolean toEmpty) {
+        int empty = emptyStacks;
+        if (fromEmptied) {
+            empty--;
+        }
+        if (toEmpty) {
+            empty--;
+        }
+        return (Math.max(0, freeCells) + 1) << Math.max(0, empty);
     }
 
     @Override
@@ -960,9 +1195,12 @@ class Freecell extends Rules {
 }
 
 class FortyThieves extends Rules {
+    private String cardsLeftString;
+    private int lastCardsLeft;
 
     public void init(Bundle map) {
         ignoreEvents = true;
+        lastCardsLeft = -1;
 
         cardCount = 104;
         cardAnchorCount = 20;
@@ -999,10 +1237,10 @@ class FortyThieves extends Rules {
 
                 for (int i = 0; i < 20; i++) {
                     for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
-                        Card card = new Card(value[cardIdx], suit[cardIdx]);
+                        Card card = takeCard(value[cardIdx], suit[cardIdx]);
                         cardAnchors[i].addCard(card);
                     }
-                    cardAnchors[i].setHiddenCount(hiddenCount[i]);
+                    cardAnchors[i].setUnseenCount(hiddenCount[i]);
                 }
 
                 ignoreEvents = false;
@@ -1020,6 +1258,7 @@ class FortyThieves extends Rules {
         while (!deck.isEmpty()) {
             cardAnchors[18].addCard(deck.popCard());
         }
+        cardAnchors[18].setUnseenCount(cardAnchors[18].getCount());
         ignoreEvents = false;
     }
 
@@ -1148,6 +1387,11 @@ class FortyThieves extends Rules {
         }
     }
 
+    @Override
+    public void syncState() {
+        cardAnchors[18].setDone(cardAnchors[18].getCount() == 0);
+    }
+
     @Override
     public int countFreeSpaces() {
         int free = 0;
@@ -1177,26 +1421,385 @@ class FortyThieves extends Rules {
     @Override
     public String getString() {
         int cardsLeft = cardAnchors[18].getCount();
-        if (cardsLeft == 1) {
-            return "1 card left";
+        if (cardsLeft != lastCardsLeft) {
+            lastCardsLeft = cardsLeft;
+            if (cardsLeft == 1) {
+                cardsLeftString = "1 card left";
+            } else {
+                cardsLeftString = cardsLeft + " cards left";
+            }
         }
-        return cardsLeft + " cards left";
+        return cardsLeftString;
     }
 
 }
 
+// A variant played from a VariantSpec. The spec sets up the anchors, the
+// deal and the layout; this runs the stock, the automatic moves to the
+// foundations and the win check the same way the games above do.
+class SpecRules extends Rules {
+    private VariantSpec spec;
+    private int dealsRemainingCount;
+    private String cardsLeftString;
+    private int lastCardsLeft;
+
+    public SpecRules(VariantSpec spec) {
+        this.spec = spec;
+    }
+
+    public void init(Bundle map) {
+        ignoreEvents = true;
+        lastCardsLeft = -1;
+        dealsRemainingCount = spec.getRedeals();
+
+        cardCount = spec.getCardCount();
+        cardAnchorCount = spec.getAnchorCount();
+        cardAnchors = spec.createAnchors(this);
+
+        if (map != null) {
+            // Do some assertions, default to a new game if we find an invalid state
+            if (map.getInt("cardAnchorCount") == cardAnchorCount &&
+                    map.getInt("cardCount") == cardCount) {
+                int[] cardCount = map.getIntArray("anchorCardCount");
+                int[] hiddenCount = map.getIntArray("anchorHiddenCount");
+                int[] value = map.getIntArray("value");
+                int[] suit = map.getIntArray("suit");
+                int cardIdx = 0;
+
+                for (int i = 0; i < cardAnchorCount; i++) {
+                    for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
+                        Card card = takeCard(value[cardIdx], suit[cardIdx]);
+                        cardAnchors[i].addCard(card);
+                    }
+                    cardAnchors[i].setUnseenCount(hiddenCount[i]);
+                }
+                dealsRemainingCount = map.getInt("rulesExtra");
+                syncState();
+
+                ignoreEvents = false;
+                // Return here so an invalid save state will result in a new game
+                return;
+            }
+        }
+
+        deck = new Deck(spec.getDecks());
+        spec.deal(cardAnchors, deck);
+        syncState();
+        ignoreEvents = false;
+    }
+
+    public void resize(int width, int height) {
+        spec.layout(cardAnchors, width, height);
+    }
+
+    // The anchors a single card can be thrown onto: the foundations, then
+    // the discard.
+    private boolean isHome(int number) {
+        return (number >= spec.getFirstFoundation() &&
+                number < spec.getFirstFoundation() + spec.getFoundationCount()) ||
+                number == spec.getDiscard();
+    }
+
+    @Override
+    public boolean fling(MoveCard moveCard) {
+        if (moveCard.getCount() == 1) {
+            CardAnchor anchor = moveCard.getAnchor();
+            Card card = moveCard.dumpCards(false)[0];
+            for (int i = 0; i < cardAnchorCount; i++) {
+                if (isHome(i) && cardAnchors[i].dropSingleCard(card)) {
+                    eventPoster.postEvent(EVENT_FLING, anchor, card);
+                    return true;
+                }
+            }
+            anchor.addCard(card);
+        } else {
+            moveCard.release();
+        }
+        return false;
+    }
 
+    @Override
+    public void eventProcess(int event, CardAnchor anchor, Card card) {
+        if (ignoreEvents) {
+            anchor.addCard(card);
+            return;
+        }
+        if (event == EVENT_FLING) {
+            wasFling = true;
+            if (!tryToSinkCard(anchor, card, true)) {
+                anchor.addCard(card);
+                wasFling = false;
+            }
+        } else {
+            anchor.addCard(card);
+        }
+    }
+
+    private boolean tryToSink(CardAnchor anchor) {
+        Card card = anchor.popCard();
+        boolean ret = tryToSinkCard(anchor, card, false);
+        if (!ret) {
+            anchor.addCard(card);
+        }
+        return ret;
+    }
+
+    // Smart moves only go to the foundations, a fling may also use the discard.
+    private boolean tryToSinkCard(CardAnchor anchor, Card card, boolean useDiscard) {
+        for (int i = 0; i < cardAnchorCount; i++) {
+            if (isHome(i) && (useDiscard || i != spec.getDiscard()) &&
+                    cardAnchors[i].dropSingleCard(card)) {
+                animateCard.moveCard(card, cardAnchors[i]);
+                moveHistory.push(new Move(anchor.getNumber(), i, 1, false, anchor.unhideTopCard()));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void eventProcess(int event, CardAnchor anchor) {
+        if (ignoreEvents) {
+            return;
+        }
+        if (event == EVENT_DEAL) {
+            deal();
+        } else if (event == EVENT_STACK_ADD) {
+            if (isWon()) {
+                signalWin();
+            } else if (spec.getFoundationCount() > 0 && (autoMoveLevel == AUTO_MOVE_ALWAYS ||
+                    (autoMoveLevel == AUTO_MOVE_FLING_ONLY && wasFling))) {
+                eventPoster.postEvent(EVENT_SMART_MOVE);
+            } else {
+                view.stopAnimating();
+                wasFling = false;
+            }
+        }
+    }
+
+    private void deal() {
+        int stock = spec.getStock();
+        if (stock < 0) {
+            return;
+        }
+        CardAnchor from = cardAnchors[stock];
+        if (spec.getOnto() == VariantSpec.ONTO_PILES) {
+            int count = Math.min(spec.getPileCount(), from.getCount());
+            if (count > 0) {
+                for (int i = 0; i < count; i++) {
+                    cardAnchors[i].addCard(from.popCard());
+                }
+                moveHistory.push(new Move(stock, 0, count - 1, 1, false, false));
+            }
+        } else if (from.getCount() > 0) {
+            int to = spec.getOnto() == VariantSpec.ONTO_WASTE ? spec.getWaste() : spec.getDiscard();
+            int count = Math.min(spec.getStockDeal(), from.getCount());
+            for (int i = 0; i < count; i++) {
+                cardAnchors[to].addCard(from.popCard());
+            }
+            moveHistory.push(new Move(stock, to, count, true, false));
+        } else if (spec.getWaste() >= 0 && dealsRemainingCount != 0) {
+            boolean addDealCount = false;
+            if (dealsRemainingCount > 0) {
+                dealsRemainingCount--;
+                addDealCount = true;
+            }
+            CardAnchor waste = cardAnchors[spec.getWaste()];
+            int count = 0;
+            while (waste.getCount() > 0) {
+                from.addCard(waste.popCard());
+                count++;
+            }
+            moveHistory.push(new Move(spec.getWaste(), stock, count, true, false, addDealCount));
+        }
+        syncState();
+    }
+
+    private boolean isWon() {
+        if (spec.getWin() == VariantSpec.WIN_PILES) {
+            for (int i = 0; i < spec.getPileCount(); i++) {
+                if (cardAnchors[i].getCount() > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int count = 0;
+        for (int i = 0; i < spec.getFoundationCount(); i++) {
+            count += cardAnchors[spec.getFirstFoundation() + i].getCount();
+        }
+        return count == cardCount;
+    }
+
+    @Override
+    public void eventProcess(int event) {
+        if (ignoreEvents) {
+            return;
+        }
+
+        if (event == EVENT_SMART_MOVE) {
+            for (int i = 0; i < spec.getPileCount(); i++) {
+                if (cardAnchors[i].getVisibleCount() > 0 && tryToSink(cardAnchors[i])) {
+                    return;
+                }
+            }
+            int waste = spec.getWaste();
+            if (waste >= 0 && cardAnchors[waste].getCount() > 0 && tryToSink(cardAnchors[waste])) {
+                return;
+            }
+            wasFling = false;
+            view.stopAnimating();
+        }
+    }
+
+    @Override
+    public int getRulesExtra() {
+        return dealsRemainingCount;
+    }
+
+    @Override
+    public void addDealCount() {
+        if (dealsRemainingCount != -1) {
+            dealsRemainingCount++;
+        }
+        syncState();
+    }
+
+    @Override
+    public void removeDealCount() {
+        if (dealsRemainingCount > 0) {
+            dealsRemainingCount--;
+        }
+    }
+
+    @Override
+    public void setRulesExtra(int extra) {
+        dealsRemainingCount = extra;
+    }
+
+    @Override
+    public void syncState() {
+        int stock = spec.getStock();
+        if (stock >= 0) {
+            boolean canRedeal = spec.getWaste() >= 0 && dealsRemainingCount != 0;
+            cardAnchors[stock].setDone(cardAnchors[stock].getCount() == 0 && !canRedeal);
+        }
+    }
+
+    @Override
+    public int countFreeSpaces() {
+        int free = 0;
+        for (int i = 0; i < spec.getPileCount(); i++) {
+            if (cardAnchors[i].getCount() == 0) {
+                free++;
+            }
+        }
+        return free;
+    }
+
+    @Override
+    public int getStockStyle() {
+        return spec.getOnto() == VariantSpec.ONTO_PILES ? STOCK_TO_STACKS : STOCK_TO_WASTE;
+    }
+
+    @Override
+    public int getDealCount() {
+        return spec.getStockDeal();
+    }
+
+    @Override
+    public int getRedealCount() {
+        return dealsRemainingCount;
+    }
+
+    @Override
+    public String getGameTypeString() {
+        return spec.getKey();
+    }
+
+    @Override
+    public String getPrettyGameTypeString() {
+        return spec.getName();
+    }
+
+    @Override
+    public boolean isShuffledDeal() {
+        return spec.isShuffledDeal();
+    }
+
+    @Override
+    public boolean isWonOnFoundations() {
+        return spec.getWin() == VariantSpec.WIN_FOUNDATIONS;
+    }
+
+    @Override
+    public boolean hasScore() {
+        return spec.hasScore();
+    }
+
+    @Override
+    public int getScore() {
+        if (!spec.hasScore()) {
+            return 0;
+        }
+        int played = 0;
+        if (spec.getWin() == VariantSpec.WIN_PILES) {
+            played = spec.getPileDealCount();
+            for (int i = 0; i < spec.getPileCount(); i++) {
+                played -= cardAnchors[i].getCount();
+            }
+        } else {
+            int first = spec.getFirstFoundation();
+            for (int i = first; i < first + spec.getFoundationCount(); i++) {
+                played += cardAnchors[i].getCount();
+            }
+        }
+        return spec.getScoreStart() + spec.getScoreCard() * played;
+    }
+
+    @Override
+    public boolean hasString() {
+        return spec.getStock() >= 0;
+    }
+
+    @Override
+    public String getString() {
+        int cardsLeft = cardAnchors[spec.getStock()].getCount();
+        if (cardsLeft != lastCardsLeft) {
+            lastCardsLeft = cardsLeft;
+            if (cardsLeft == 1) {
+                cardsLeftString = "1 card left";
+            } else {
+                cardsLeftString = cardsLeft + " cards left";
+            }
+        }
+        return cardsLeftString;
+    }
+}
+
+
+// Queue of events waiting to be processed by the rules. Handling one event
+// often posts the next (a card landing on a foundation posts a smart move,
+// which sinks another card, and so on), so events are kept in order rather
+// than each new one overwriting the last. All events are posted from the UI
+// thread, so no locking is needed.
 class EventPoster {
-    private int event;
-    private CardAnchor cardAnchor;
-    private Card card;
+    private static final int CAPACITY = 64;
+
+    private int[] events;
+    private CardAnchor[] cardAnchors;
+    private Card[] cards;
+    private int head;
+    private int count;
     private Rules rules;
 
     public EventPoster(Rules rules) {
         this.rules = rules;
-        event = -1;
-        cardAnchor = null;
-        card = null;
+        events = new int[CAPACITY];
+        cardAnchors = new CardAnchor[CAPACITY];
+        cards = new Card[CAPACITY];
+        head = 0;
+        count = 0;
     }
 
     public void postEvent(int event) {
@@ -1208,28 +1811,52 @@ class EventPoster {
     }
 
     public void postEvent(int theEvent, CardAnchor theAnchor, Card theCard) {
-        event = theEvent;
-        cardAnchor = theAnchor;
-        card = theCard;
+        if (count > 0 && theCard == null) {
+            // Several cards dropped on one stack each report the add, the
+            // rules only need to look at the stack once.
+            int tail = (head + count - 1) % CAPACITY;
+            if (events[tail] == theEvent && cardAnchors[tail] == theAnchor && cards[tail] == null) {
+                return;
+            }
+        }
+        if (count == CAPACITY) {
+            Log.e("EventPoster.java", "Event queue full, dropping event " + theEvent);
+            if (theAnchor != null && theCard != null) {
+                // Never lose a card that is in flight.
+                theAnchor.addCard(theCard);
+            }
+            return;
+        }
+        int tail = (head + count) % CAPACITY;
+        events[tail] = theEvent;
+        cardAnchors[tail] = theAnchor;
+        cards[tail] = theCard;
+        count++;
     }
 
-
     public void clearEvent() {
-        event = Rules.EVENT_INVALID;
-        cardAnchor = null;
-        card = null;
+        while (count > 0) {
+            cardAnchors[head] = null;
+            cards[head] = null;
+            head = (head + 1) % CAPACITY;
+            count--;
+        }
+        head = 0;
     }
 
     public boolean hasEvent() {
-        return event != Rules.EVENT_INVALID;
+        return count > 0;
     }
 
     public void handleEvent() {
         if (hasEvent()) {
-            int event = this.event;
-            CardAnchor cardAnchor = this.cardAnchor;
-            Card card = this.card;
-            clearEvent();
+            int event = events[head];
+            CardAnchor cardAnchor = cardAnchors[head];
+            Card card = cards[head];
+            cardAnchors[head] = null;
+            cards[head] = null;
+            head = (head + 1) % CAPACITY;
+            count--;
             if (cardAnchor != null && card != null) {
                 rules.eventProcess(event, cardAnchor, card);
             } else if (cardAnchor != null) {
@@ -1239,6 +1866,16 @@ class EventPoster {
             }
         }
     }
+
+    // Handles every queued event, including those posted while handling, so
+    // a chain of automatic moves that doesn't need to animate finishes in a
+    // single call. The limit guards against rules that keep reposting.
+    public void handleEvents() {
+        int limit = CAPACITY * 4;
+        while (hasEvent() && !rules.getIgnoreEvents() && limit-- > 0) {
+            handleEvent();
+        }
+    }
 }
 
 
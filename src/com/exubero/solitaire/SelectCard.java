@@ -29,8 +29,10 @@ class SelectCard {
     private float leftEdge;
     private float rightEdge;
     private int height;
+    private CardLayout layout;
 
-    public SelectCard() {
+    public SelectCard(CardLayout layout) {
+        this.layout = layout;
         height = 1;
         cards = new Card[MAX_CARDS];
         clear();
@@ -83,15 +85,15 @@ class SelectCard {
         if (cardCount % 2 == 0) {
             mid--;
         }
-        float x = cards[0].getX();
-        float y = cards[mid].getY();
+        float x = layout.getX(cards[0]);
+        float y = layout.getY(cards[mid]);
         if (y - mid * (Card.HEIGHT + 5) < 0) {
             mid = 0;
             y = 5;
         }
 
         for (int i = 0; i < cardCount; i++) {
-            cards[i].setPosition(x, y + (i - mid) * (Card.HEIGHT + 5));
+            layout.setPosition(cards[i], x, y + (i - mid) * (Card.HEIGHT + 5));
         }
 
         leftEdge = cardAnchor.getLeftEdge();
@@ -99,12 +101,12 @@ class SelectCard {
     }
 
     public boolean tap(float x, float y) {
-        float left = leftEdge == -1 ? cards[0].getX() : leftEdge;
-        float right = rightEdge == -1 ? cards[0].getX() + Card.WIDTH : rightEdge;
+        float left = leftEdge == -1 ? layout.getX(cards[0]) : leftEdge;
+        float right = rightEdge == -1 ? layout.getX(cards[0]) + Card.WIDTH : rightEdge;
         selected = -1;
         if (x >= left && x <= right) {
             for (int i = 0; i < cardCount; i++) {
-                if (y >= cards[i].getY() && y <= cards[i].getY() + Card.HEIGHT) {
+                if (y >= layout.getY(cards[i]) && y <= layout.getY(cards[i]) + Card.HEIGHT) {
                     selected = i;
                     return true;
                 }
@@ -152,9 +154,9 @@ class SelectCard {
     public void scroll(float dy) {
         float x, y;
         for (int i = 0; i < cardCount; i++) {
-            x = cards[i].getX();
-            y = cards[i].getY() - dy;
-            cards[i].setPosition(x, y);
+            x = layout.getX(cards[i]);
+            y = layout.getY(cards[i]) - dy;
+            layout.setPosition(cards[i], x, y);
         }
     }
 
@@ -16,9 +16,14 @@
 package com.exubero.solitaire;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.SubMenu;
@@ -39,6 +44,11 @@ public class Solitaire extends Activity {
     private static final int MENU_FORTYTHIEVES = 9;
     private static final int MENU_STATS = 10;
     private static final int MENU_HELP = 11;
+    private static final int MENU_REDO = 12;
+    private static final int MENU_BAKERSDOZEN = 13;
+    private static final int MENU_GOLF = 14;
+    private static final int MENU_WIN_CHANCE = 15;
+    private static final int MENU_GO_TO_MOVE = 16;
 
     // View extracted from main.xml.
     private View mainView;
@@ -46,12 +56,32 @@ public class Solitaire extends Activity {
     private SharedPreferences settings;
 
     private boolean doSave;
+    private boolean runAllocationScript;
 
     // Shared preferences are where the various user settings are stored.
     public SharedPreferences GetSettings() {
         return settings;
     }
 
+    // True for debug builds, which get the developer settings.
+    public boolean isDebuggable() {
+        try {
+            ApplicationInfo info = getPackageManager().getApplicationInfo(getPackageName(), 0);
+            return (info.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    // The sanity check level, with stop on failure left to debug builds.
+    public int getInvariantLevel() {
+        int level = settings.getInt("InvariantLevel", InvariantChecker.LEVEL_DEBUG);
+        if (level == InvariantChecker.LEVEL_STRICT && !isDebuggable()) {
+            level = InvariantChecker.LEVEL_DEBUG;
+        }
+        return level;
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -67,6 +97,8 @@ public class Solitaire extends Activity {
         mainView = findViewById(R.id.main_view);
         solitaireView = (SolitaireView) findViewById(R.id.solitaire);
         solitaireView.setTextView((TextView) findViewById(R.id.text));
+        runAllocationScript = isDebuggable() &&
+                getIntent().getBooleanExtra("AllocationScript", false);
 
         //StartSolitaire(savedInstanceState);
     }
@@ -83,12 +115,34 @@ public class Solitaire extends Activity {
             // If save is corrupt, just start a new game.
             if (solitaireView.loadSave()) {
                 helpSplashScreen();
+                startAllocationScript();
                 return;
             }
         }
 
         solitaireView.initGame(settings.getInt("LastType", Rules.SOLITAIRE));
         helpSplashScreen();
+        startAllocationScript();
+    }
+
+    // Runs AllocationScript once the view is laid out, if this is a debug
+    // build started for it. The script plays on a view of its own.
+    private void startAllocationScript() {
+        if (!runAllocationScript) {
+            return;
+        }
+        runAllocationScript = false;
+        solitaireView.post(new Runnable() {
+            public void run() {
+                String failures = new AllocationScript(Solitaire.this, solitaireView).run();
+                if (failures == null) {
+                    Log.i("Solitaire.java", "AllocationScript passed");
+                } else {
+                    Log.e("Solitaire.java", "AllocationScript failed:\n" + failures);
+                }
+                solitaireView.refresh();
+            }
+        });
     }
 
     // Force show the help if this is the first time played. Sadly no one reads
@@ -108,11 +162,16 @@ public class Solitaire extends Activity {
         subMenu.add(0, MENU_SPIDER, 0, R.string.menu_spider);
         subMenu.add(0, MENU_FREECELL, 0, R.string.menu_freecell);
         subMenu.add(0, MENU_FORTYTHIEVES, 0, R.string.menu_fortythieves);
+        subMenu.add(0, MENU_BAKERSDOZEN, 0, R.string.menu_bakersdozen);
+        subMenu.add(0, MENU_GOLF, 0, R.string.menu_golf);
 
         menu.add(0, MENU_RESTART, 0, R.string.menu_restart);
+        menu.add(0, MENU_REDO, 0, R.string.menu_redo);
+        menu.add(0, MENU_GO_TO_MOVE, 0, R.string.menu_go_to_move);
         menu.add(0, MENU_OPTIONS, 0, R.string.menu_options);
         menu.add(0, MENU_SAVE_QUIT, 0, R.string.menu_save_quit);
         menu.add(0, MENU_DEAL, 0, R.string.menu_deal);
+        menu.add(0, MENU_WIN_CHANCE, 0, R.string.menu_win_chance);
         menu.add(0, MENU_STATS, 0, R.string.menu_stats);
         menu.add(0, MENU_HELP, 0, R.string.menu_help);
         return true;
@@ -133,9 +192,21 @@ public class Solitaire extends Activity {
             case MENU_FORTYTHIEVES:
                 solitaireView.initGame(Rules.FORTYTHIEVES);
                 break;
+            case MENU_BAKERSDOZEN:
+                solitaireView.initGame(Rules.BAKERSDOZEN);
+                break;
+            case MENU_GOLF:
+                solitaireView.initGame(Rules.GOLF);
+                break;
             case MENU_RESTART:
                 solitaireView.restartGame();
                 break;
+            case MENU_REDO:
+                solitaireView.redo();
+                break;
+            case MENU_GO_TO_MOVE:
+                displayMoves();
+                break;
             case MENU_STATS:
                 displayStats();
                 break;
@@ -153,6 +224,9 @@ public class Solitaire extends Activity {
             case MENU_DEAL:
                 solitaireView.deal();
                 break;
+            case MENU_WIN_CHANCE:
+                solitaireView.estimateWin();
+                break;
         }
 
         return false;
@@ -188,6 +262,27 @@ public class Solitaire extends Activity {
         new Options(this, solitaireView.getDrawMaster());
     }
 
+    // Lists every move of the game, the current one checked, and jumps to the
+    // one picked.
+    public void displayMoves() {
+        int count = solitaireView.getTimelineSize();
+        String[] moves = new String[count + 1];
+        moves[0] = "Start";
+        for (int i = 1; i <= count; i++) {
+            moves[i] = "Move " + i;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.menu_go_to_move)
+                .setSingleChoiceItems(moves, solitaireView.getMoveCount(),
+                        new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        solitaireView.jumpToMove(which);
+                    }
+                })
+                .show();
+    }
+
     public void displayStats() {
         solitaireView.setTimePassing(false);
         new Stats(this, solitaireView);
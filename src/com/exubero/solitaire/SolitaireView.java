@@ -29,14 +29,17 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.widget.TextView;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
 import java.io.StreamCorruptedException;
-import java.util.Stack;
+import java.util.Random;
 
 // The brains of the operation
 public class SolitaireView extends View {
@@ -50,14 +53,19 @@ public class SolitaireView extends View {
     private static final int MODE_WIN_STOP = 7;
 
     private static final String SAVE_FILENAME = "solitaire_save.bin";
+    private static final String TIMINGS_FILENAME = "timings.txt";
+    private static final String DEALS_FILENAME = "deals.bin";
     // This is incremented only when the save system changes.
     private static final String SAVE_VERSION = "solitaire_save_2";
+    // How long estimateWin samples for before showing its answer.
+    private static final long ESTIMATE_MILLIS = 3000;
 
     private CharSequence helpText;
     private CharSequence winText;
 
     private CardAnchor[] cardAnchors;
     private DrawMaster drawMaster;
+    private CardLayout cardLayout;
     private Rules rules;
     private TextView textView;
     private AnimateCard animateCard;
@@ -71,14 +79,13 @@ public class SolitaireView extends View {
     private PointF downPoint;
     private RefreshHandler refreshHandler;
     private Thread refreshThread;
-    private Stack<Move> moveHistory;
+    private MoveHistory moveHistory;
     private Replay replay;
     private Context context;
+    private SharedPreferences settings;
     private boolean hasMoved;
     private Speed speed;
 
-    private Card[] undoStorage;
-
     private int elapsed = 0;
     private long startTime;
     private boolean timePaused;
@@ -89,21 +96,27 @@ public class SolitaireView extends View {
 
     private int winningScore;
 
+    private AllocationChecker drawAllocations;
+    private AllocationChecker touchAllocations;
+    private boolean isDisplayTimings;
+    private DealQueue dealQueue;
+    private WinEstimator winEstimator;
+
     public SolitaireView(Context context, AttributeSet attrs) {
         super(context, attrs);
         setFocusable(true);
         setFocusableInTouchMode(true);
 
         drawMaster = new DrawMaster(context);
-        moveCard = new MoveCard();
-        selectCard = new SelectCard();
+        cardLayout = drawMaster.getCardLayout();
+        moveCard = new MoveCard(cardLayout);
+        selectCard = new SelectCard(cardLayout);
         viewMode = MODE_NORMAL;
         lastPoint = new PointF();
         downPoint = new PointF();
         refreshHandler = new RefreshHandler(this);
         refreshThread = new Thread(refreshHandler);
-        moveHistory = new Stack<Move>();
-        undoStorage = new Card[CardAnchor.MAX_CARDS];
+        moveHistory = new MoveHistory();
         animateCard = new AnimateCard(this);
         speed = new Speed();
         replay = new Replay(this, animateCard);
@@ -114,6 +127,16 @@ public class SolitaireView extends View {
         textViewDown = false;
         refreshThread.start();
         winningScore = 0;
+
+        settings = context.getSharedPreferences("SolitairePreferences", 0);
+        drawAllocations = new AllocationChecker("onDraw");
+        touchAllocations = new AllocationChecker("onTouchEvent");
+        isDisplayTimings = settings.getBoolean("DisplayTimings", false);
+
+        dealQueue = DealQueue.getInstance();
+        if (dealQueue.startRead()) {
+            readDeals();
+        }
     }
 
     public void initGame(int gameType) {
@@ -139,18 +162,23 @@ public class SolitaireView extends View {
                 }
             }
         }
+        stopEstimate();
         changeViewMode(MODE_NORMAL);
         textView.setVisibility(View.INVISIBLE);
         moveHistory.clear();
         rules = Rules.createRules(gameType, null, this, moveHistory, animateCard);
+        if (getSettings().getBoolean("WinnableDeals", false)) {
+            dealWinnable();
+        }
         if (oldGameType == rules.getGameTypeString()) {
             rules.setCarryOverScore(oldScore);
         }
         Card.setSize(gameType);
         drawMaster.drawCards(getSettings().getBoolean("DisplayBigCards", false));
         cardAnchors = rules.getCardAnchors();
+        moveHistory.checkpoint(rules);
         if (drawMaster.getWidth() > 1) {
-            rules.resize(drawMaster.getWidth(), drawMaster.getHeight());
+            rules.layout(drawMaster.getWidth(), drawMaster.getHeight());
             refresh();
         }
         setDisplayTime(getSettings().getBoolean("DisplayTime", true));
@@ -163,8 +191,43 @@ public class SolitaireView extends View {
         isGameStarted = false;
     }
 
+    // Replaces the shuffled deal with a winnable one, from the queue if one is
+    // ready. Otherwise one is generated here where that is quick, and where
+    // it isn't the game keeps its shuffle rather than keep the player waiting.
+    private void dealWinnable() {
+        int difficulty = getSettings().getInt("WinnableDifficulty", DealGenerator.DIFFICULTY_MEDIUM);
+        Deal deal = dealQueue.take(rules, difficulty);
+        if (deal == null) {
+            deal = new DealGenerator(rules, new Random(), difficulty).generate();
+        }
+        if (deal != null) {
+            deal.dealTo(rules);
+        }
+    }
+
     public SharedPreferences getSettings() {
-        return ((Solitaire) context).GetSettings();
+        return settings;
+    }
+
+    // Points the view at other preferences, so that a view played by a
+    // script leaves the player's settings and stats alone.
+    public void setSettings(SharedPreferences settings) {
+        this.settings = settings;
+    }
+
+    // Stops a view that is never shown, such as AllocationScript's, once it
+    // is done with.
+    public void release() {
+        stopEstimate();
+        refreshHandler.setRunning(false);
+    }
+
+    public int getInvariantLevel() {
+        return ((Solitaire) context).getInvariantLevel();
+    }
+
+    public CardLayout getCardLayout() {
+        return cardLayout;
     }
 
     public DrawMaster getDrawMaster() {
@@ -175,6 +238,19 @@ public class SolitaireView extends View {
         return rules;
     }
 
+    public AllocationChecker getDrawAllocations() {
+        return drawAllocations;
+    }
+
+    public AllocationChecker getTouchAllocations() {
+        return touchAllocations;
+    }
+
+    // True while cards move on their own, in an animation or a replay.
+    public boolean isAnimating() {
+        return animateCard.isAnimating() || replay.isPlaying();
+    }
+
     public void clearGameStarted() {
         isGameStarted = false;
     }
@@ -255,6 +331,8 @@ public class SolitaireView extends View {
 
     public void onPause() {
         isPaused = true;
+        dealQueue.setPaused(true);
+        stopEstimate();
 
         if (refreshThread != null) {
             refreshHandler.setRunning(false);
@@ -282,6 +360,56 @@ public class SolitaireView extends View {
     }
 
     public void saveGame() {
+        long start = Timings.start();
+        writeSave();
+        Timings.record(Timings.SAVE_GAME, start);
+        if (isDisplayTimings) {
+            saveTimings();
+        }
+        writeDeals();
+    }
+
+    private void writeDeals() {
+        try {
+            DataOutputStream out = new DataOutputStream(context.openFileOutput(DEALS_FILENAME, 0));
+            dealQueue.write(out);
+            out.close();
+        } catch (FileNotFoundException e) {
+            Log.e("SolitaireView.java", "writeDeals(): File not found");
+        } catch (IOException e) {
+            Log.e("SolitaireView.java", "writeDeals(): IOException");
+        }
+    }
+
+    private void readDeals() {
+        try {
+            DataInputStream in = new DataInputStream(context.openFileInput(DEALS_FILENAME));
+            dealQueue.read(in);
+            in.close();
+        } catch (FileNotFoundException e) {
+            // Nothing queued yet.
+        } catch (IOException e) {
+            Log.e("SolitaireView.java", "readDeals(): IOException");
+            context.deleteFile(DEALS_FILENAME);
+        } catch (RuntimeException e) {
+            // A damaged file must not stop the game from starting.
+            Log.e("SolitaireView.java", "readDeals(): " + e);
+            context.deleteFile(DEALS_FILENAME);
+        }
+    }
+
+    // Leaves the timing numbers where they can be pulled off the device.
+    private void saveTimings() {
+        try {
+            PrintWriter out = new PrintWriter(context.openFileOutput(TIMINGS_FILENAME, 0));
+            Timings.dump(out);
+            out.close();
+        } catch (FileNotFoundException e) {
+            Log.e("SolitaireView.java", "saveTimings(): File not found");
+        }
+    }
+
+    private void writeSave() {
         // This is supposed to have been called but I've seen instances where it wasn't.
         if (refreshThread != null) {
             onPause();
@@ -309,7 +437,7 @@ public class SolitaireView extends View {
                 cardCount = 0;
                 for (int i = 0; i < cardAnchors.length; i++) {
                     anchorCardCount[i] = cardAnchors[i].getCount();
-                    anchorHiddenCount[i] = cardAnchors[i].getHiddenCount();
+                    anchorHiddenCount[i] = cardAnchors[i].getUnseenCount();
                     card = cardAnchors[i].getCards();
                     for (int j = 0; j < anchorCardCount[i]; j++, cardCount++) {
                         value[cardCount] = card[j].getValue();
@@ -317,8 +445,9 @@ public class SolitaireView extends View {
                     }
                 }
 
+                // Newest move first, without disturbing the undo/redo timeline.
                 for (int i = 0; i < historySize; i++) {
-                    Move move = moveHistory.pop();
+                    Move move = moveHistory.get(historySize - 1 - i);
                     historyFrom[i] = move.getFrom();
                     historyToBegin[i] = move.getToBegin();
                     historyToEnd[i] = move.getToEnd();
@@ -357,7 +486,13 @@ public class SolitaireView extends View {
     }
 
     public boolean loadSave() {
-        drawMaster.drawCards(getSettings().getBoolean("DisplayBigCards", false));
+        long start = Timings.start();
+        boolean ret = readSave();
+        Timings.record(Timings.LOAD_SAVE, start);
+        return ret;
+    }
+
+    private boolean readSave() {
         timePaused = true;
 
         try {
@@ -387,6 +522,7 @@ public class SolitaireView extends View {
             int[] historyToEnd = (int[]) oin.readObject();
             int[] historyCount = (int[]) oin.readObject();
             int[] historyFlags = (int[]) oin.readObject();
+            moveHistory.clear();
             for (int i = historyFrom.length - 1; i >= 0; i--) {
                 moveHistory.push(new Move(historyFrom[i], historyToBegin[i], historyToEnd[i],
                         historyCount[i], historyFlags[i]));
@@ -397,10 +533,12 @@ public class SolitaireView extends View {
             isGameStarted = !moveHistory.isEmpty();
             rules = Rules.createRules(type, map, this, moveHistory, animateCard);
             Card.setSize(type);
+            drawMaster.drawCards(getSettings().getBoolean("DisplayBigCards", false));
             setDisplayTime(getSettings().getBoolean("DisplayTime", true));
             cardAnchors = rules.getCardAnchors();
+            moveHistory.checkpoint(rules);
             if (drawMaster.getWidth() > 1) {
-                rules.resize(drawMaster.getWidth(), drawMaster.getHeight());
+                rules.layout(drawMaster.getWidth(), drawMaster.getHeight());
                 refresh();
             }
             timePaused = false;
@@ -421,6 +559,7 @@ public class SolitaireView extends View {
     }
 
     public void onResume() {
+        dealQueue.setPaused(false);
         startTime = SystemClock.uptimeMillis() - elapsed;
         refreshHandler.setRunning(true);
         refreshThread = new Thread(refreshHandler);
@@ -439,7 +578,7 @@ public class SolitaireView extends View {
 
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         drawMaster.setScreenSize(w, h);
-        rules.resize(w, h);
+        rules.layout(w, h);
         selectCard.setHeight(h);
     }
 
@@ -460,15 +599,99 @@ public class SolitaireView extends View {
         replay.startReplay(moveHistory, cardAnchors);
     }
 
-    public void restartGame() {
+    // Plays the game back from its deal as a win does, without the win.
+    public void replayGame() {
+        changeViewMode(MODE_WIN);
         rules.setIgnoreEvents(true);
-        while (!moveHistory.empty()) {
-            undo();
+        replay.startReplay(moveHistory, cardAnchors);
+    }
+
+    public void restartGame() {
+        jumpToMove(0);
+    }
+
+    // Undoes or redoes straight to the board after the first target moves,
+    // going through the nearest checkpoint.
+    public void jumpToMove(int target) {
+        if (viewMode != MODE_NORMAL && viewMode != MODE_WIN) {
+            return;
         }
+        moveCard.release();
+        selectCard.release();
+        rules.setIgnoreEvents(true);
+        moveHistory.jumpTo(rules, target);
         rules.setIgnoreEvents(false);
+        boardSettled();
         refresh();
     }
 
+    public int getMoveCount() {
+        return moveHistory.size();
+    }
+
+    // Moves played, including those that can be redone.
+    public int getTimelineSize() {
+        return moveHistory.getTimelineSize();
+    }
+
+    // Works out the chance of winning from here in the background, and shows
+    // it once the time is up.
+    public void estimateWin() {
+        if (viewMode != MODE_NORMAL) {
+            return;
+        }
+        stopEstimate();
+        textView.setTextSize(20);
+        textView.setGravity(Gravity.CENTER);
+        if (!GenericSolver.canSolve(new GameInfo(rules), new Deal(rules))) {
+            displayText("No win chance for this game");
+            return;
+        }
+        final WinEstimator estimator = new WinEstimator(rules, ESTIMATE_MILLIS);
+        estimator.setOnDone(new Runnable() {
+            public void run() {
+                post(new Runnable() {
+                    public void run() {
+                        showEstimate(estimator);
+                    }
+                });
+            }
+        });
+        winEstimator = estimator;
+        estimator.start();
+        displayText("Working out the win chance...");
+    }
+
+    private void showEstimate(WinEstimator estimator) {
+        if (estimator != winEstimator) {
+            return;
+        }
+        winEstimator = null;
+        if (viewMode != MODE_TEXT) {
+            return;
+        }
+        if (estimator.getSampleCount() == 0) {
+            displayText("Win chance unknown");
+            return;
+        }
+        // Deals the solver gave up on count as lost, so say how many.
+        String unknown = "";
+        if (estimator.getUnknown() > 0) {
+            unknown = "\n" + estimator.getUnknown() + " too hard to work out, counted as lost";
+        }
+        displayText("Win chance " + Math.round(estimator.getProbability() * 100) + "%\n" +
+                Math.round(estimator.getLowerBound() * 100) + "% to " +
+                Math.round(estimator.getUpperBound() * 100) + "%, from " +
+                estimator.getSampleCount() + " deals" + unknown);
+    }
+
+    private void stopEstimate() {
+        if (winEstimator != null) {
+            winEstimator.stop();
+            winEstimator = null;
+        }
+    }
+
     public void displayText(CharSequence text) {
         changeViewMode(MODE_TEXT);
         textView.setVisibility(View.VISIBLE);
@@ -477,20 +700,22 @@ public class SolitaireView extends View {
     }
 
     public void drawBoard() {
+        long start = Timings.start();
         Canvas boardCanvas = drawMaster.getBoardCanvas();
         drawMaster.drawBackground(boardCanvas);
         for (int i = 0; i < cardAnchors.length; i++) {
             cardAnchors[i].draw(drawMaster, boardCanvas);
         }
+        Timings.record(Timings.DRAW_BOARD, start);
     }
 
     @Override
     public void onDraw(Canvas canvas) {
+        long start = Timings.start();
+        drawAllocations.begin();
 
         // Only draw the stagnant stuff if it may have changed
         if (viewMode == MODE_NORMAL) {
-            // sanityCheck is for debug use only.
-            sanityCheck();
             drawBoard();
         }
         drawMaster.drawLastBoard(canvas);
@@ -520,7 +745,15 @@ public class SolitaireView extends View {
                 animateCard.draw(drawMaster, canvas);
         }
 
+        if (isDisplayTimings) {
+            drawMaster.drawTimings(canvas);
+        }
+
+        long eventsStart = Timings.start();
         rules.handleEvents();
+        Timings.record(Timings.HANDLE_EVENTS, eventsStart);
+        drawAllocations.end();
+        Timings.record(Timings.ON_DRAW, start);
     }
 
     @Override
@@ -536,14 +769,25 @@ public class SolitaireView extends View {
                 return true;
             case KeyEvent.KEYCODE_BACK:
                 undo();
+                boardSettled();
                 return true;
         }
         rules.handleEvents();
+        boardSettled();
         return super.onKeyDown(keyCode, msg);
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        long start = Timings.start();
+        touchAllocations.begin();
+        boolean ret = handleTouch(event);
+        touchAllocations.end();
+        Timings.record(Timings.TOUCH, start);
+        return ret;
+    }
+
+    private boolean handleTouch(MotionEvent event) {
         boolean ret = false;
 
         // Yes you can get touch events while in the "paused" state.
@@ -554,7 +798,7 @@ public class SolitaireView extends View {
         // Text mode only handles clickys
         if (viewMode == MODE_TEXT) {
             if (event.getAction() == MotionEvent.ACTION_UP && textViewDown) {
-                SharedPreferences.Editor editor = context.getSharedPreferences("SolitairePreferences", 0).edit();
+                SharedPreferences.Editor editor = getSettings().edit();
                 editor.putBoolean("PlayedBefore", true);
                 editor.commit();
                 textViewDown = false;
@@ -593,6 +837,7 @@ public class SolitaireView extends View {
         }
 
         rules.handleEvents();
+        boardSettled();
         return ret;
     }
 
@@ -600,7 +845,13 @@ public class SolitaireView extends View {
         switch (viewMode) {
             case MODE_NORMAL:
                 if (!hasMoved) {
-                    for (int i = 0; i < cardAnchors.length; i++) {
+                    long candidates = rules.getAnchorIndex().getCandidates(x, y);
+                    while (candidates != 0) {
+                        int i = Long.numberOfTrailingZeros(candidates);
+                        candidates &= candidates - 1;
+                        if (i >= cardAnchors.length) {
+                            break;
+                        }
                         if (cardAnchors[i].expandStack(x, y)) {
                             selectCard.initFromAnchor(cardAnchors[i]);
                             changeViewMode(MODE_CARD_SELECT);
@@ -613,24 +864,18 @@ public class SolitaireView extends View {
                 }
                 break;
             case MODE_MOVE_CARD:
-                for (int close = 0; close < 2; close++) {
-                    CardAnchor prevAnchor = moveCard.getAnchor();
-                    boolean unhide = (prevAnchor.getVisibleCount() == 0 &&
-                            prevAnchor.getCount() > 0);
-                    int count = moveCard.getCount();
-
-                    for (int i = 0; i < cardAnchors.length; i++) {
-                        if (cardAnchors[i] != prevAnchor) {
-                            if (cardAnchors[i].canDropCard(moveCard, close)) {
-                                moveHistory.push(new Move(prevAnchor.getNumber(), i, count, false, unhide));
-                                cardAnchors[i].addMoveCard(moveCard);
-                                if (viewMode == MODE_MOVE_CARD) {
-                                    changeViewMode(MODE_NORMAL);
-                                }
-                                return true;
-                            }
-                        }
+                CardAnchor prevAnchor = moveCard.getAnchor();
+                boolean unhide = (prevAnchor.getVisibleCount() == 0 &&
+                        prevAnchor.getCount() > 0);
+                int count = moveCard.getCount();
+                int target = rules.getAnchorIndex().findDropTarget(moveCard);
+                if (target != -1) {
+                    moveHistory.push(new Move(prevAnchor.getNumber(), target, count, false, unhide));
+                    cardAnchors[target].addMoveCard(moveCard);
+                    if (viewMode == MODE_MOVE_CARD) {
+                        changeViewMode(MODE_NORMAL);
                     }
+                    return true;
                 }
                 if (!moveCard.hasMoved()) {
                     CardAnchor anchor = moveCard.getAnchor();
@@ -666,10 +911,16 @@ public class SolitaireView extends View {
         switch (viewMode) {
             case MODE_NORMAL:
                 Card card = null;
-                for (int i = 0; i < cardAnchors.length; i++) {
+                long candidates = rules.getAnchorIndex().getCandidates(x, y);
+                while (candidates != 0) {
+                    int i = Long.numberOfTrailingZeros(candidates);
+                    candidates &= candidates - 1;
+                    if (i >= cardAnchors.length) {
+                        break;
+                    }
                     card = cardAnchors[i].grabCard(x, y);
                     if (card != null) {
-                        if (y < card.getY() + Card.HEIGHT / 4) {
+                        if (y < cardLayout.getY(card) + Card.HEIGHT / 4) {
                             boolean lastIgnore = rules.getIgnoreEvents();
                             rules.setIgnoreEvents(true);
                             cardAnchors[i].addCard(card);
@@ -700,7 +951,13 @@ public class SolitaireView extends View {
         switch (viewMode) {
             case MODE_NORMAL:
                 if (Math.abs(downPoint.x - x) > 15 || Math.abs(downPoint.y - y) > 15) {
-                    for (int i = 0; i < cardAnchors.length; i++) {
+                    long candidates = rules.getAnchorIndex().getCandidates(downPoint.x, downPoint.y);
+                    while (candidates != 0) {
+                        int i = Long.numberOfTrailingZeros(candidates);
+                        candidates &= candidates - 1;
+                        if (i >= cardAnchors.length) {
+                            break;
+                        }
                         if (cardAnchors[i].canMoveStack(downPoint.x, downPoint.y)) {
                             moveCard.initFromAnchor(cardAnchors[i], x - Card.WIDTH / 2, y - Card.HEIGHT / 2);
                             changeViewMode(MODE_MOVE_CARD);
@@ -747,6 +1004,7 @@ public class SolitaireView extends View {
     public void stopAnimating() {
         if (viewMode == MODE_ANIMATE) {
             changeViewMode(MODE_NORMAL);
+            boardSettled();
         } else if (viewMode == MODE_WIN) {
             changeViewMode(MODE_WIN_STOP);
         }
@@ -767,44 +1025,27 @@ public class SolitaireView extends View {
         moveCard.release();
         selectCard.release();
 
-        if (!moveHistory.empty()) {
-            Move move = moveHistory.pop();
-            int count = 0;
-            int from = move.getFrom();
-            if (move.getToBegin() != move.getToEnd()) {
-                for (int i = move.getToBegin(); i <= move.getToEnd(); i++) {
-                    for (int j = 0; j < move.getCount(); j++) {
-                        undoStorage[count++] = cardAnchors[i].popCard();
-                    }
-                }
-            } else {
-                for (int i = 0; i < move.getCount(); i++) {
-                    undoStorage[count++] = cardAnchors[move.getToBegin()].popCard();
-                }
-            }
-            if (move.getUnhide()) {
-                cardAnchors[from].setHiddenCount(cardAnchors[from].getHiddenCount() + 1);
-            }
-            if (move.getInvert()) {
-                for (int i = 0; i < count; i++) {
-                    cardAnchors[from].addCard(undoStorage[i]);
-                }
-            } else {
-                for (int i = count - 1; i >= 0; i--) {
-                    cardAnchors[from].addCard(undoStorage[i]);
-                }
-            }
-            if (move.getAddDealCount()) {
-                rules.addDealCount();
-            }
-            if (undoStorage[0].getValue() == 1) {
-                for (int i = 0; i < cardAnchors[from].getCount(); i++) {
-                    Card card = cardAnchors[from].getCards()[i];
-                }
-            }
+        if (moveHistory.undo(rules)) {
+            refresh();
+        }
+        rules.setIgnoreEvents(oldIgnore);
+    }
+
+    public void redo() {
+        if (viewMode != MODE_NORMAL) {
+            return;
+        }
+        boolean oldIgnore = rules.getIgnoreEvents();
+        rules.setIgnoreEvents(true);
+
+        moveCard.release();
+        selectCard.release();
+
+        if (moveHistory.redo(rules)) {
             refresh();
         }
         rules.setIgnoreEvents(oldIgnore);
+        boardSettled();
     }
 
     private void markAttempt() {
@@ -836,61 +1077,42 @@ public class SolitaireView extends View {
         }
     }
 
-    // Simple function to check for a consistent state in Solitaire.
-    private void sanityCheck() {
-        int cardCount;
-        int matchCount;
-        String type = rules.getGameTypeString();
-        if ("Spider1Suit".equals(type)) {
-            cardCount = 13;
-            matchCount = 8;
-        } else if ("Spider2Suit".equals(type)) {
-            cardCount = 26;
-            matchCount = 4;
-        } else if ("Spider4Suit".equals(type)) {
-            cardCount = 52;
-            matchCount = 2;
-        } else if ("Forty Thieves".equals(type)) {
-            cardCount = 52;
-            matchCount = 2;
-        } else {
-            cardCount = 52;
-            matchCount = 1;
-        }
-
-        int[] cards = new int[cardCount];
-        for (int i = 0; i < cardCount; i++) {
-            cards[i] = 0;
+    // Called whenever input or an animation has finished and the board may
+    // have settled with nothing in flight.
+    private void boardSettled() {
+        if (viewMode != MODE_NORMAL || animateCard.isAnimating()) {
+            return;
         }
-        for (int i = 0; i < cardAnchors.length; i++) {
-            for (int j = 0; j < cardAnchors[i].getCount(); j++) {
-                Card card = cardAnchors[i].getCards()[j];
-                int idx = card.getSuit() * 13 + card.getValue() - 1;
-                if (cards[idx] >= matchCount) {
-                    textView.setTextSize(20);
-                    textView.setGravity(Gravity.CENTER);
-                    displayText("Sanity Check Failed\nExtra: " + card.getValue() + " " + card.getSuit());
-                    return;
-                }
-                cards[idx]++;
-            }
+        checkInvariants();
+        if (viewMode == MODE_NORMAL) {
+            moveHistory.checkpoint(rules);
         }
-        for (int i = 0; i < cardCount; i++) {
-            if (cards[i] != matchCount) {
-                textView.setTextSize(20);
-                textView.setGravity(Gravity.CENTER);
-                displayText("Sanity Check Failed\nMissing: " + (i % 13 + 1) + " " + i / 13);
-                return;
-            }
+    }
+
+    // Checks the board for a consistent state. The running counts are kept by
+    // InvariantChecker, so this is constant time.
+    private void checkInvariants() {
+        InvariantChecker checker = rules.getInvariantChecker();
+        checker.checkSettled();
+        String failure = checker.takeFailure();
+        if (failure != null) {
+            textView.setTextSize(20);
+            textView.setGravity(Gravity.CENTER);
+            displayText("Sanity Check Failed\n" + failure);
         }
     }
 
     public void refreshOptions() {
         rules.refreshOptions();
         setDisplayTime(getSettings().getBoolean("DisplayTime", true));
+        isDisplayTimings = getSettings().getBoolean("DisplayTimings", false);
     }
 }
 
+// Paces the game from a background thread. Board and timer state belong to
+// the UI thread, which is the only thread that changes them; this thread only
+// hands work over to it, through post() for the timer tick and postInvalidate()
+// for drawing.
 class RefreshHandler implements Runnable {
     public static final int NO_REFRESH = 1;
     public static final int SINGLE_REFRESH = 2;
@@ -898,14 +1120,25 @@ class RefreshHandler implements Runnable {
 
     private static final int FPS = 30;
 
-    private boolean isRunning;
+    private volatile boolean isRunning;
     private int refresh;
+    private boolean tickPending;
     private SolitaireView mView;
+    private Runnable tick;
 
     public RefreshHandler(SolitaireView solitaireView) {
         mView = solitaireView;
         isRunning = true;
         refresh = NO_REFRESH;
+        tickPending = false;
+        tick = new Runnable() {
+            public void run() {
+                synchronized (RefreshHandler.this) {
+                    tickPending = false;
+                }
+                mView.updateTime();
+            }
+        };
     }
 
     public void setRefresh(int refresh) {
@@ -924,6 +1157,32 @@ class RefreshHandler implements Runnable {
 
     public void setRunning(boolean run) {
         isRunning = run;
+        if (run) {
+            // A tick posted before pausing may never have run.
+            synchronized (this) {
+                tickPending = false;
+            }
+        }
+    }
+
+    // Returns true if a frame should be drawn, consuming a single refresh.
+    private synchronized boolean takeRefresh() {
+        if (refresh == NO_REFRESH) {
+            return false;
+        }
+        if (refresh == SINGLE_REFRESH) {
+            refresh = NO_REFRESH;
+        }
+        return true;
+    }
+
+    // Only one tick is queued at a time so a busy UI thread isn't flooded.
+    private synchronized boolean takeTick() {
+        if (tickPending) {
+            return false;
+        }
+        tickPending = true;
+        return true;
     }
 
     public void run() {
@@ -932,12 +1191,11 @@ class RefreshHandler implements Runnable {
                 Thread.sleep(1000 / FPS);
             } catch (InterruptedException e) {
             }
-            mView.updateTime();
-            if (refresh != NO_REFRESH) {
+            if (takeTick()) {
+                mView.post(tick);
+            }
+            if (takeRefresh()) {
                 mView.postInvalidate();
-                if (refresh == SINGLE_REFRESH) {
-                    setRefresh(NO_REFRESH);
-                }
             }
         }
     }
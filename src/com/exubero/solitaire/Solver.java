@@ -0,0 +1,179 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+// Base for the deal solvers. A solver takes a copy of the board, searches
+// for a way to put every card on the foundations and reports whether it
+// found one, proved there is none, or ran out of its node budget first.
+abstract class Solver {
+
+    public static final int RESULT_SOLVED = 1;
+    public static final int RESULT_UNSOLVABLE = 2;
+    public static final int RESULT_UNKNOWN = 3;   // Gave up at the node budget
+
+    protected TranspositionTable table;
+    protected int maxNodes;
+    protected int nodeCount;
+    protected int[] solution;
+    protected int solutionLength;
+    protected volatile boolean isCancelled;
+
+    public Solver(TranspositionTable table) {
+        this.table = table;
+        maxNodes = 200000;
+        nodeCount = 0;
+        solution = new int[0];
+        solutionLength = 0;
+    }
+
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    // Makes a solve running on another thread give up as if it had run out
+    // of nodes. It stays cancelled.
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    // Moves of the solution found by the last solve, in the solver's own
+    // encoding, or nothing if it wasn't solved.
+    public int[] getSolution() {
+        return solution;
+    }
+
+    public int getSolutionLength() {
+        return solutionLength;
+    }
+
+    abstract public int solve();
+}
+
+// Set of positions already searched, keyed by a 64 bit hash. It has a fixed
+// size and lives outside the Java heap, in direct buffers, so a big table
+// costs the garbage collector nothing and a table can be larger than an
+// array allows: up to 2^30 slots in buffers of 2^26.
+//
+// Slots come in buckets of four that a hash shares. Each slot holds the key
+// and the depth and search the position was recorded at. A slot from an
+// earlier search counts as empty; when a bucket is full the deepest position
+// is replaced, as the ones nearer the start stand for more of the search.
+// clear just starts a new search, so the old entries stop counting without
+// the memory being touched.
+class TranspositionTable {
+
+    private static final int BUCKET = 4;
+    private static final int SEGMENT_BITS = 26;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private static final int MAX_SIZE_BITS = 30;
+    private static final int SLOT_BYTES = 16;
+
+    // Two longs a slot: the key, then depth in the low 32 bits and search in
+    // the high.
+    private ByteBuffer[] segments;
+    private long mask;
+    private int search;
+
+    // Holds up to 2^sizeBits positions.
+    public TranspositionTable(int sizeBits) {
+        sizeBits = Math.max(2, Math.min(MAX_SIZE_BITS, sizeBits));
+        long size = 1L << sizeBits;
+        mask = size - 1;
+        int segmentSize = (int) Math.min(size, 1 << SEGMENT_BITS);
+        segments = new ByteBuffer[(int) (size / segmentSize)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentSize * SLOT_BYTES)
+                    .order(ByteOrder.nativeOrder());
+        }
+        search = 1;
+    }
+
+    // The biggest table that fits in the given number of bytes.
+    public static TranspositionTable forBytes(long bytes) {
+        int sizeBits = 2;
+        while (sizeBits < MAX_SIZE_BITS && ((long) SLOT_BYTES << (sizeBits + 1)) <= bytes) {
+            sizeBits++;
+        }
+        return new TranspositionTable(sizeBits);
+    }
+
+    // Records key, found at depth moves from the start, returning false if
+    // it was already recorded in this search.
+    public boolean add(long key, int depth) {
+        if (key == 0) {
+            key = 1;
+        }
+        long bucket = (key ^ (key >>> 32)) & mask & ~(BUCKET - 1);
+        ByteBuffer segment = segments[(int) (bucket >>> SEGMENT_BITS)];
+        int first = ((int) bucket & SEGMENT_MASK) * SLOT_BYTES;
+        // Entries of this search fill a bucket from the front, so the first
+        // stale slot ends the search for key.
+        int victim = first;
+        int victimDepth = -1;
+        for (int i = first; i < first + BUCKET * SLOT_BYTES; i += SLOT_BYTES) {
+            long data = segment.getLong(i + 8);
+            if ((int) (data >>> 32) != search) {
+                victim = i;
+                break;
+            }
+            if (segment.getLong(i) == key) {
+                return false;
+            }
+            if ((int) data > victimDepth) {
+                victim = i;
+                victimDepth = (int) data;
+            }
+        }
+        segment.putLong(victim, key);
+        segment.putLong(victim + 8, (long) search << 32 | depth);
+        return true;
+    }
+
+    // Forgets every position. Only when the search count wraps round is the
+    // memory wiped.
+    public void clear() {
+        search++;
+        if (search == Integer.MAX_VALUE) {
+            for (int i = 0; i < segments.length; i++) {
+                for (int j = 0; j < segments[i].capacity(); j += 8) {
+                    segments[i].putLong(j, 0);
+                }
+            }
+            search = 1;
+        }
+    }
+
+    // Bytes held outside the heap.
+    public long getBytes() {
+        return (mask + 1) * SLOT_BYTES;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// Always on timers for the operations that matter to frame time and start up.
+// Each operation has a fixed histogram with power of two buckets in
+// microseconds, updated with atomics so any thread can record without taking
+// a lock. The numbers can be drawn over the game or dumped to a file.
+class Timings {
+
+    public static final int ON_DRAW = 0;
+    public static final int DRAW_BOARD = 1;
+    public static final int HANDLE_EVENTS = 2;
+    public static final int TOUCH = 3;
+    public static final int SAVE_GAME = 4;
+    public static final int LOAD_SAVE = 5;
+    public static final int DRAW_CARDS = 6;
+    public static final int COUNT = 7;
+
+    private static final String[] NAMES = {
+            "onDraw", "drawBoard", "handleEvents", "onTouchEvent", "saveGame", "loadSave",
+            "drawCards"
+    };
+
+    // Bucket i counts times under 2^i microseconds; the last one takes the rest.
+    private static final int BUCKETS = 24;
+
+    private static AtomicIntegerArray buckets = new AtomicIntegerArray(COUNT * BUCKETS);
+    private static AtomicLongArray totalMicros = new AtomicLongArray(COUNT);
+    private static AtomicLongArray maxMicros = new AtomicLongArray(COUNT);
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    public static void record(int op, long start) {
+        long micros = (System.nanoTime() - start) / 1000;
+        if (micros < 0) {
+            micros = 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        if (bucket >= BUCKETS) {
+            bucket = BUCKETS - 1;
+        }
+        buckets.incrementAndGet(op * BUCKETS + bucket);
+        totalMicros.addAndGet(op, micros);
+        long max = maxMicros.get(op);
+        while (micros > max && !maxMicros.compareAndSet(op, max, micros)) {
+            max = maxMicros.get(op);
+        }
+    }
+
+    public static String getName(int op) {
+        return NAMES[op];
+    }
+
+    public static int getCount(int op) {
+        int count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += buckets.get(op * BUCKETS + i);
+        }
+        return count;
+    }
+
+    public static long getMaxMicros(int op) {
+        return maxMicros.get(op);
+    }
+
+    // Upper bound, in microseconds, of the bucket holding the given percentile.
+    public static long getPercentileMicros(int op, int percentile) {
+        int count = getCount(op);
+        if (count == 0) {
+            return 0;
+        }
+        int wanted = (int) ((long) count * percentile / 100);
+        int seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(op * BUCKETS + i);
+            if (seen > wanted) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    public static void dump(PrintWriter out) {
+        for (int op = 0; op < COUNT; op++) {
+            int count = getCount(op);
+            out.print(NAMES[op] + " count=" + count);
+            if (count > 0) {
+                out.print(" meanUs=" + totalMicros.get(op) / count + " maxUs=" + maxMicros.get(op));
+            }
+            out.print(" buckets(us<2^i)=");
+            for (int i = 0; i < BUCKETS; i++) {
+                out.print(i == 0 ? "" : ",");
+                out.print(buckets.get(op * BUCKETS + i));
+            }
+            out.println();
+        }
+    }
+}
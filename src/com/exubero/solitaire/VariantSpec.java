@@ -0,0 +1,561 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.util.HashMap;
+
+
+// A variant written as data instead of as a Rules class. The text has one
+// directive per line, a word followed by options written name=value:
+//
+//   name    Shown in the menu and stats; key is the stats key (name if unset).
+//   decks   Number of decks shuffled together.
+//   piles   count, then deal (cards per pile, or first-last to deal one
+//           more to each pile along), faceup (all, or how many of each pile
+//           are dealt face up), kings=bottom, and the stack rules: start,
+//           build, suit, move, movesuit, pickup, dropoff and display.
+//   foundations  Number of sinks built up in suit from the ace.
+//   stock   deal (cards at a time), redeals (-1 for no limit), onto (waste,
+//           piles or discard).
+//   discard A single stack cards are played onto to get rid of them, with
+//           the same stack rules as piles and deal for its starting cards.
+//   win     foundations (every card up) or piles (every pile cleared).
+//   score   card (points for each card played home: onto the foundations,
+//           or off the piles when the win is piles) and start (points at
+//           the deal). Without it the variant keeps no score.
+//
+// Each text is parsed once. The stack rules go through the GenericAnchor
+// setters, so they are compiled into the same RuleTables as the built in
+// games. Anchors are numbered piles first, then foundations, stock, and
+// waste or discard.
+class VariantSpec {
+
+    public static final int ONTO_WASTE = 1;
+    public static final int ONTO_PILES = 2;
+    public static final int ONTO_DISCARD = 3;
+
+    public static final int WIN_FOUNDATIONS = 1;
+    public static final int WIN_PILES = 2;
+
+    public static final String BAKERS_DOZEN =
+            "name Baker's Dozen\n" +
+            "decks 1\n" +
+            "piles 13 deal=4 kings=bottom start=none build=dsc suit=any pickup=one dropoff=one\n" +
+            "foundations 4\n" +
+            "win foundations\n";
+
+    public static final String GOLF =
+            "name Golf\n" +
+            "decks 1\n" +
+            "piles 7 deal=5 start=none build=any pickup=one dropoff=none\n" +
+            "stock deal=1 redeals=0 onto=discard\n" +
+            "discard deal=1 start=any build=seq suit=any pickup=none dropoff=one display=one\n" +
+            "win piles\n" +
+            "score card=1\n";
+
+    private static HashMap<String, VariantSpec> specs = new HashMap<String, VariantSpec>();
+
+    private String name;
+    private String key;
+    private int decks;
+    private int pileCount;
+    private int dealFirst;
+    private int dealLast;
+    private int faceUp;
+    private boolean kingsToBottom;
+    private int[] pileRules;
+    private int foundationCount;
+    private boolean hasStock;
+    private int stockDeal;
+    private int redeals;
+    private int onto;
+    private boolean hasDiscard;
+    private int discardDeal;
+    private int[] discardRules;
+    private int win;
+    private boolean hasScore;
+    private int scoreCard;
+    private int scoreStart;
+
+    public static synchronized VariantSpec get(String text) {
+        VariantSpec spec = specs.get(text);
+        if (spec == null) {
+            spec = new VariantSpec(text);
+            specs.put(text, spec);
+        }
+        return spec;
+    }
+
+    private VariantSpec(String text) {
+        decks = 1;
+        faceUp = -1;
+        stockDeal = 1;
+        onto = ONTO_WASTE;
+        win = WIN_FOUNDATIONS;
+        pileRules = defaultRules();
+        discardRules = defaultRules();
+
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            String word = words[0];
+            if (word.equals("name")) {
+                name = line.substring(word.length()).trim();
+            } else if (word.equals("key")) {
+                key = words[1];
+            } else if (word.equals("decks")) {
+                decks = parseInt(words[1], line);
+            } else if (word.equals("piles")) {
+                pileCount = parseInt(words[1], line);
+                for (int j = 2; j < words.length; j++) {
+                    parsePileOption(words[j], line);
+                }
+            } else if (word.equals("foundations")) {
+                foundationCount = parseInt(words[1], line);
+            } else if (word.equals("stock")) {
+                hasStock = true;
+                for (int j = 1; j < words.length; j++) {
+                    parseStockOption(words[j], line);
+                }
+            } else if (word.equals("discard")) {
+                hasDiscard = true;
+                for (int j = 1; j < words.length; j++) {
+                    String option = getOptionName(words[j], line);
+                    if (option.equals("deal")) {
+                        discardDeal = parseInt(getOptionValue(words[j]), line);
+                    } else {
+                        parseRule(discardRules, option, getOptionValue(words[j]), line);
+                    }
+                }
+            } else if (word.equals("win")) {
+                win = lookup(words[1], new String[] {"foundations", "piles"},
+                        new int[] {WIN_FOUNDATIONS, WIN_PILES}, line);
+            } else if (word.equals("score")) {
+                hasScore = true;
+                scoreCard = 1;
+                for (int j = 1; j < words.length; j++) {
+                    parseScoreOption(words[j], line);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown directive: " + line);
+            }
+        }
+        if (name == null || pileCount == 0) {
+            throw new IllegalArgumentException("A variant needs a name and piles");
+        }
+        if (key == null) {
+            key = name;
+        }
+        if (onto == ONTO_DISCARD && !hasDiscard) {
+            throw new IllegalArgumentException("Stock deals onto a discard that isn't there");
+        }
+    }
+
+    // Indexes into the rules arrays, in the order of the GenericAnchor setters.
+    private static final int RULE_START = 0;
+    private static final int RULE_BUILD = 1;
+    private static final int RULE_SUIT = 2;
+    private static final int RULE_MOVE = 3;
+    private static final int RULE_MOVESUIT = 4;
+    private static final int RULE_PICKUP = 5;
+    private static final int RULE_DROPOFF = 6;
+    private static final int RULE_DISPLAY = 7;
+
+    private static int[] defaultRules() {
+        return new int[] {GenericAnchor.START_ANY, GenericAnchor.SEQ_DSC, GenericAnchor.SUIT_RB,
+                0, 0, GenericAnchor.PACK_MULTI, GenericAnchor.PACK_MULTI, GenericAnchor.DISPLAY_MIX};
+    }
+
+    private void parsePileOption(String word, String line) {
+        String option = getOptionName(word, line);
+        String value = getOptionValue(word);
+        if (option.equals("deal")) {
+            int dash = value.indexOf('-');
+            if (dash > 0) {
+                dealFirst = parseInt(value.substring(0, dash), line);
+                dealLast = parseInt(value.substring(dash + 1), line);
+            } else {
+                dealFirst = parseInt(value, line);
+                dealLast = dealFirst;
+            }
+        } else if (option.equals("faceup")) {
+            faceUp = value.equals("all") ? -1 : parseInt(value, line);
+        } else if (option.equals("kings")) {
+            kingsToBottom = value.equals("bottom");
+        } else {
+            parseRule(pileRules, option, value, line);
+        }
+    }
+
+    private void parseStockOption(String word, String line) {
+        String option = getOptionName(word, line);
+        String value = getOptionValue(word);
+        if (option.equals("deal")) {
+            stockDeal = parseInt(value, line);
+        } else if (option.equals("redeals")) {
+            redeals = parseInt(value, line);
+        } else if (option.equals("onto")) {
+            onto = lookup(value, new String[] {"waste", "piles", "discard"},
+                    new int[] {ONTO_WASTE, ONTO_PILES, ONTO_DISCARD}, line);
+        } else {
+            throw new IllegalArgumentException("Unknown stock option: " + line);
+        }
+    }
+
+    private void parseScoreOption(String word, String line) {
+        String option = getOptionName(word, line);
+        String value = getOptionValue(word);
+        if (option.equals("card")) {
+            scoreCard = parseInt(value, line);
+        } else if (option.equals("start")) {
+            scoreStart = parseInt(value, line);
+        } else {
+            throw new IllegalArgumentException("Unknown score option: " + line);
+        }
+    }
+
+    private static final String[] START_NAMES = {"any", "king", "none"};
+    private static final int[] START_VALUES = {GenericAnchor.START_ANY, GenericAnchor.START_KING,
+            GenericAnchor.START_NONE};
+    private static final String[] SEQ_NAMES = {"any", "seq", "asc", "dsc"};
+    private static final int[] SEQ_VALUES = {GenericAnchor.SEQ_ANY, GenericAnchor.SEQ_SEQ,
+            GenericAnchor.SEQ_ASC, GenericAnchor.SEQ_DSC};
+    private static final String[] SUIT_NAMES = {"any", "rb", "other", "color", "same"};
+    private static final int[] SUIT_VALUES = {GenericAnchor.SUIT_ANY, GenericAnchor.SUIT_RB,
+            GenericAnchor.SUIT_OTHER, GenericAnchor.SUIT_COLOR, GenericAnchor.SUIT_SAME};
+    private static final String[] PACK_NAMES = {"none", "one", "multi", "free"};
+    private static final int[] PACK_VALUES = {GenericAnchor.PACK_NONE, GenericAnchor.PACK_ONE,
+            GenericAnchor.PACK_MULTI, GenericAnchor.PACK_LIMIT_BY_FREE};
+    private static final String[] DISPLAY_NAMES = {"all", "hide", "mix", "one"};
+    private static final int[] DISPLAY_VALUES = {GenericAnchor.DISPLAY_ALL, GenericAnchor.DISPLAY_HIDE,
+            GenericAnchor.DISPLAY_MIX, GenericAnchor.DISPLAY_ONE};
+
+    private static void parseRule(int[] rules, String option, String value, String line) {
+        if (option.equals("start")) {
+            rules[RULE_START] = lookup(value, START_NAMES, START_VALUES, line);
+        } else if (option.equals("build")) {
+            rules[RULE_BUILD] = lookup(value, SEQ_NAMES, SEQ_VALUES, line);
+        } else if (option.equals("suit")) {
+            rules[RULE_SUIT] = lookup(value, SUIT_NAMES, SUIT_VALUES, line);
+        } else if (option.equals("move")) {
+            rules[RULE_MOVE] = lookup(value, SEQ_NAMES, SEQ_VALUES, line);
+        } else if (option.equals("movesuit")) {
+            rules[RULE_MOVESUIT] = lookup(value, SUIT_NAMES, SUIT_VALUES, line);
+        } else if (option.equals("pickup")) {
+            rules[RULE_PICKUP] = lookup(value, PACK_NAMES, PACK_VALUES, line);
+        } else if (option.equals("dropoff")) {
+            rules[RULE_DROPOFF] = lookup(value, PACK_NAMES, PACK_VALUES, line);
+        } else if (option.equals("display")) {
+            rules[RULE_DISPLAY] = lookup(value, DISPLAY_NAMES, DISPLAY_VALUES, line);
+        } else {
+            throw new IllegalArgumentException("Unknown option: " + line);
+        }
+    }
+
+    private static String getOptionName(String word, String line) {
+        int equals = word.indexOf('=');
+        if (equals <= 0) {
+            throw new IllegalArgumentException("Expected name=value: " + line);
+        }
+        return word.substring(0, equals);
+    }
+
+    private static String getOptionValue(String word) {
+        return word.substring(word.indexOf('=') + 1);
+    }
+
+    private static int lookup(String value, String[] names, int[] values, String line) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(value)) {
+                return values[i];
+            }
+        }
+        throw new IllegalArgumentException("Unknown value " + value + ": " + line);
+    }
+
+    private static int parseInt(String value, String line) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number: " + line);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    // False when the deal moves cards about after the shuffle.
+    public boolean isShuffledDeal() {
+        return !kingsToBottom;
+    }
+
+    public int getDecks() {
+        return decks;
+    }
+
+    public int getCardCount() {
+        return decks * 52;
+    }
+
+    public int getPileCount() {
+        return pileCount;
+    }
+
+    public int getFoundationCount() {
+        return foundationCount;
+    }
+
+    public int getFirstFoundation() {
+        return pileCount;
+    }
+
+    // Anchor number of the stock, or -1.
+    public int getStock() {
+        return hasStock ? pileCount + foundationCount : -1;
+    }
+
+    // Anchor number of the waste, or -1.
+    public int getWaste() {
+        return hasStock && onto == ONTO_WASTE ? getStock() + 1 : -1;
+    }
+
+    // Anchor number of the discard, or -1.
+    public int getDiscard() {
+        return hasDiscard ? pileCount + foundationCount + (hasStock ? 1 : 0) : -1;
+    }
+
+    public int getAnchorCount() {
+        int count = pileCount + foundationCount;
+        if (hasStock) {
+            count++;
+        }
+        if (getWaste() >= 0) {
+            count++;
+        }
+        if (hasDiscard) {
+            count++;
+        }
+        return count;
+    }
+
+    public int getStockDeal() {
+        return stockDeal;
+    }
+
+    public int getRedeals() {
+        return redeals;
+    }
+
+    public int getOnto() {
+        return onto;
+    }
+
+    public int getWin() {
+        return win;
+    }
+
+    public boolean hasScore() {
+        return hasScore;
+    }
+
+    public int getScoreCard() {
+        return scoreCard;
+    }
+
+    public int getScoreStart() {
+        return scoreStart;
+    }
+
+    // Cards the deal puts on the piles, before any go to the discard or stock.
+    public int getPileDealCount() {
+        int count = 0;
+        for (int i = 0; i < pileCount; i++) {
+            count += getDealCount(i);
+        }
+        return Math.min(count, getCardCount());
+    }
+
+    private int getDealCount(int pile) {
+        return dealFirst + (dealFirst == dealLast ? 0 :
+                pile * (dealLast - dealFirst) / Math.max(1, pileCount - 1));
+    }
+
+    public CardAnchor[] createAnchors(Rules rules) {
+        CardAnchor[] anchors = new CardAnchor[getAnchorCount()];
+        for (int i = 0; i < pileCount; i++) {
+            anchors[i] = CardAnchor.createAnchor(CardAnchor.GENERIC_ANCHOR, i, rules);
+            applyRules(anchors[i], pileRules);
+        }
+        for (int i = 0; i < foundationCount; i++) {
+            int number = getFirstFoundation() + i;
+            anchors[number] = CardAnchor.createAnchor(CardAnchor.SEQ_SINK, number, rules);
+        }
+        if (hasStock) {
+            anchors[getStock()] = CardAnchor.createAnchor(CardAnchor.DEAL_FROM, getStock(), rules);
+        }
+        if (getWaste() >= 0) {
+            anchors[getWaste()] = CardAnchor.createAnchor(CardAnchor.DEAL_TO, getWaste(), rules);
+            anchors[getWaste()].setShowing(Math.min(stockDeal, 3));
+        }
+        if (hasDiscard) {
+            anchors[getDiscard()] = CardAnchor.createAnchor(CardAnchor.GENERIC_ANCHOR, getDiscard(), rules);
+            applyRules(anchors[getDiscard()], discardRules);
+            // Reports each card played on it, so the rules can check for a win.
+            anchors[getDiscard()].setHack(GenericAnchor.DEALHACK);
+        }
+        return anchors;
+    }
+
+    // A run moves the way it was built unless the spec says otherwise.
+    private static void applyRules(CardAnchor anchor, int[] rules) {
+        int build = rules[RULE_BUILD];
+        int move = rules[RULE_MOVE];
+        if (move == 0) {
+            move = build == GenericAnchor.SEQ_DSC ? GenericAnchor.SEQ_ASC :
+                    build == GenericAnchor.SEQ_ASC ? GenericAnchor.SEQ_DSC : build;
+        }
+        anchor.setStartSeq(rules[RULE_START]);
+        anchor.setBuildSeq(build);
+        anchor.setBuildSuit(rules[RULE_SUIT]);
+        anchor.setMoveSeq(move);
+        anchor.setMoveSuit(rules[RULE_MOVESUIT] == 0 ? rules[RULE_SUIT] : rules[RULE_MOVESUIT]);
+        anchor.setWrap(false);
+        anchor.setPickup(rules[RULE_PICKUP]);
+        anchor.setDropoff(rules[RULE_DROPOFF]);
+        anchor.setDisplay(rules[RULE_DISPLAY]);
+    }
+
+    // Deals a new game from deck. Whatever the piles and discard don't take
+    // goes to the stock.
+    public void deal(CardAnchor[] anchors, Deck deck) {
+        for (int i = 0; i < pileCount; i++) {
+            int count = getDealCount(i);
+            for (int j = 0; j < count && !deck.isEmpty(); j++) {
+                anchors[i].addCard(deck.popCard());
+            }
+            if (kingsToBottom) {
+                moveKingsDown(anchors[i]);
+            }
+            if (faceUp >= 0) {
+                anchors[i].setHiddenCount(Math.max(0, anchors[i].getCount() - faceUp));
+            }
+        }
+        for (int i = 0; i < discardDeal && !deck.isEmpty(); i++) {
+            anchors[getDiscard()].addCard(deck.popCard());
+        }
+        for (int i = 0; !deck.isEmpty(); i++) {
+            if (hasStock) {
+                anchors[getStock()].addCard(deck.popCard());
+            } else {
+                anchors[i % pileCount].addCard(deck.popCard());
+            }
+        }
+        if (hasStock) {
+            anchors[getStock()].setUnseenCount(anchors[getStock()].getCount());
+        }
+    }
+
+    // Puts the kings of a pile underneath its other cards, keeping the order.
+    private static void moveKingsDown(CardAnchor anchor) {
+        int count = anchor.getCount();
+        Card[] cards = new Card[count];
+        anchor.popCards(cards, count);
+        Card[] sorted = new Card[count];
+        int sortedCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (cards[i].getValue() == Card.KING) {
+                sorted[sortedCount++] = cards[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (cards[i].getValue() != Card.KING) {
+                sorted[sortedCount++] = cards[i];
+            }
+        }
+        anchor.addCards(sorted, count);
+    }
+
+    // Stock, waste or discard go at the left of the top row and the
+    // foundations at its right. The piles fill rows of up to ten below.
+    public void layout(CardAnchor[] anchors, int width, int height) {
+        int rowLength = Math.min(pileCount, 10);
+        int rows = (pileCount + rowLength - 1) / rowLength;
+        if (rows > 1) {
+            rowLength = (pileCount + rows - 1) / rows;
+        }
+        int left = 0;
+        if (hasStock) {
+            left++;
+        }
+        if (getWaste() >= 0 || hasDiscard) {
+            left += stockDeal > 1 ? 2 : 1;
+        }
+        int columns = Math.max(rowLength, left + foundationCount + (left > 0 && foundationCount > 0 ? 1 : 0));
+        int rem = (width - Card.WIDTH * columns) / columns;
+
+        int column = 0;
+        if (hasStock) {
+            anchors[getStock()].setPosition(getColumnX(column++, rem), 10);
+        }
+        if (getWaste() >= 0) {
+            anchors[getWaste()].setPosition(getColumnX(column++, rem), 10);
+        }
+        if (hasDiscard) {
+            anchors[getDiscard()].setPosition(getColumnX(column++, rem), 10);
+        }
+        for (int i = 0; i < foundationCount; i++) {
+            anchors[getFirstFoundation() + i].setPosition(
+                    getColumnX(columns - foundationCount + i, rem), 10);
+        }
+        if (left > 0) {
+            anchors[hasStock ? getStock() : getDiscard()].setLeftEdge(0);
+        } else if (foundationCount == columns) {
+            anchors[getFirstFoundation()].setLeftEdge(0);
+        }
+        if (foundationCount > 0) {
+            anchors[getFirstFoundation() + foundationCount - 1].setRightEdge(width);
+        }
+
+        int top = left + foundationCount > 0 ? 20 + Card.HEIGHT : 10;
+        int rowHeight = (height - top) / rows;
+        for (int i = 0; i < pileCount; i++) {
+            int row = i / rowLength;
+            int y = top + row * rowHeight;
+            anchors[i].setMaxHeight(rowHeight - (rows > 1 ? 10 : 0));
+            anchors[i].setPosition(getColumnX(i % rowLength, rem), y);
+            anchors[i].setBottom(row == rows - 1 ? height : y + rowHeight);
+            if (i % rowLength == 0) {
+                anchors[i].setLeftEdge(0);
+            }
+            if (i % rowLength == rowLength - 1 || i == pileCount - 1) {
+                anchors[i].setRightEdge(width);
+            }
+        }
+    }
+
+    private static int getColumnX(int column, int rem) {
+        return rem / 2 + column * (rem + Card.WIDTH);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package com.exubero.solitaire;
+
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+
+
+// Estimates the chance of winning the game in progress when some cards are
+// still unseen: face down, or in the stock and never turned up. Each sample
+// deals the unseen cards in a random order and solves the result; the share
+// of samples solved is the estimate. Every order is one the seen cards allow,
+// but each sample is solved knowing where its cards are, so this is the
+// chance for a player who could see through the backs, an upper bound for
+// one who can't.
+//
+// Samples that run out of nodes are the hard deals, so leaving them out would
+// push the estimate up. They are counted as losses instead, which makes the
+// estimate a lower bound for that see-through player, and getUnknown says
+// how many there were.
+//
+// The samples run on background threads until stop is called or the time
+// budget runs out, when a timer cancels any solve still going. The counts can
+// be read at any time, so the estimate can be shown as it firms up.
+class WinEstimator {
+
+    // z for a 95% confidence interval.
+    private static final double Z = 1.96;
+
+    private GenericSolver[] solvers;
+    private Thread[] threads;
+    private Timer timer;
+    private long budgetMillis;
+    private long seed;
+    private volatile boolean isStopped;
+    private Runnable onDone;
+    private int runningCount;
+
+    private int wins;
+    private int losses;
+    private int unknown;
+
+    // Takes its copy of the board straight away, so call it where the rules
+    // may be read. Each sample gets up to maxNodes positions.
+    public WinEstimator(Rules rules, int threadCount, long budgetMillis, int maxNodes) {
+        this.budgetMillis = budgetMillis;
+        seed = System.nanoTime();
+        solvers = new GenericSolver[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            solvers[i] = new GenericSolver(rules, new TranspositionTable(17));
+            solvers[i].setMaxNodes(maxNodes);
+        }
+    }
+
+    public WinEstimator(Rules rules, long budgetMillis) {
+        this(rules, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), budgetMillis, 50000);
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // Runs onDone on the last sampling thread once the samples are over.
+    public void setOnDone(Runnable onDone) {
+        this.onDone = onDone;
+    }
+
+    public void start() {
+        threads = new Thread[solvers.length];
+        runningCount = solvers.length;
+        timer = new Timer("WinEstimator", true);
+        timer.schedule(new TimerTask() {
+            public void run() {
+                stopSamples();
+            }
+        }, budgetMillis);
+        for (int i = 0; i < solvers.length; i++) {
+            final GenericSolver solver = solvers[i];
+            final Random random = new Random(seed + i);
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        sample(solver, random);
+                    } finally {
+                        finished();
+                    }
+                }
+            }, "WinEstimator-" + i);
+            threads[i].setDaemon(true);
+            threads[i].setPriority(Thread.MIN_PRIORITY);
+            threads[i].start();
+        }
+    }
+
+    // Stops the samples, including any being solved, and waits for the
+    // threads to finish.
+    public void stop() {
+        stopSamples();
+        join();
+    }
+
+    private void stopSamples() {
+        isStopped = true;
+        for (int i = 0; i < solvers.length; i++) {
+            solvers[i].cancel();
+        }
+    }
+
+    private void finished() {
+        synchronized (this) {
+            if (--runningCount > 0) {
+                return;
+            }
+        }
+        timer.cancel();
+        if (onDone != null) {
+            onDone.run();
+        }
+    }
+
+    // Waits for the time budget to run out.
+    public void join() {
+        if (threads == null) {
+            return;
+        }
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        if (threads == null) {
+            return false;
+        }
+        for (int i = 0; i < threads.length; i++) {
+            if (threads[i].isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sample(GenericSolver solver, Random random) {
+        int count = solver.getUnseenCount();
+        int[] cards = new int[count];
+        solver.getUnseen(cards);
+        // With nothing face down a single solve settles it.
+        boolean once = count < 2;
+        while (!isStopped) {
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int card = cards[i];
+                cards[i] = cards[j];
+                cards[j] = card;
+            }
+            solver.setUnseen(cards);
+            solver.getTable().clear();
+            int result = solver.solve();
+            if (solver.isCancelled()) {
+                break;
+            }
+            record(result);
+            if (once) {
+                break;
+            }
+        }
+    }
+
+    private synchronized void record(int result) {
+        if (result == Solver.RESULT_SOLVED) {
+            wins++;
+        } else if (result == Solver.RESULT_UNSOLVABLE) {
+            losses++;
+        } else {
+            unknown++;
+        }
+    }
+
+    public synchronized int getWins() {
+        return wins;
+    }
+
+    public synchronized int getLosses() {
+        return losses;
+    }
+
+    // Samples that ran out of nodes. They count as losses.
+    public synchronized int getUnknown() {
+        return unknown;
+    }
+
+    public synchronized int getSampleCount() {
+        return wins + losses + unknown;
+    }
+
+    // Share of the samples that were won, or -1 before there are any.
+    public synchronized double getProbability() {
+        int samples = getSampleCount();
+        return samples == 0 ? -1 : (double) wins / samples;
+    }
+
+    // Ends of the 95% Wilson interval around the estimate, which stays
+    // inside 0 to 1 and behaves with few samples or all wins.
+    public synchronized double getLowerBound() {
+        return getBound(-1);
+    }
+
+    public synchronized double getUpperBound() {
+        return getBound(1);
+    }
+
+    private double getBound(int sign) {
+        int samples = getSampleCount();
+        if (samples == 0) {
+            return sign < 0 ? 0 : 1;
+        }
+        double p = (double) wins / samples;
+        double z2 = Z * Z / samples;
+        double centre = p + z2 / 2;
+        double spread = Z * Math.sqrt(p * (1 - p) / samples + z2 / (4 * samples));
+        return (centre + sign * spread) / (1 + z2);
+    }
+}